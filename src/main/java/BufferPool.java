@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Пул буферов одного размера.
+ * Это класс для внутреннего использования.
+ * Позволяет не выделять буферы TLS заново для каждого соединения.
+ */
+class BufferPool {
+    private final int bufferSize;
+
+    // Сколько свободных буферов хранится в пуле
+    private final int maxPooled;
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    /**
+     * Конструктор
+     *
+     * @param bufferSize размер буфера
+     * @param maxPooled  максимальное число свободных буферов в пуле
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Возвращает очищенный буфер из пула или новый, если пул пуст.
+     *
+     * @return
+     */
+    synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            return ByteBuffer.allocate(bufferSize);
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * Возвращает буфер в пул. Буферы другого размера отбрасываются.
+     *
+     * @param buffer
+     */
+    synchronized void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize && free.size() < maxPooled) {
+            free.addFirst(buffer);
+        }
+    }
+}
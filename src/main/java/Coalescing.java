@@ -0,0 +1,36 @@
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Настройки объединения одинаковых запросов для обработчика.
+ * Пока выполняется обработчик для некоторого метода, пути и параметров,
+ * такие же запросы не запускают его повторно, а ждут его ответа.
+ * Запросы с разными значениями заголовков varyHeaders (например,
+ * Authorization) не объединяются. Запросы с телом не объединяются никогда.
+ */
+public class Coalescing {
+    // Максимальное время ожидания ответа
+    private final Duration maxWait;
+
+    // Заголовки, значения которых должны совпадать
+    private final List<String> varyHeaders;
+
+    /**
+     * Конструктор
+     *
+     * @param maxWait     максимальное время ожидания, после него клиент получит 503
+     * @param varyHeaders заголовки, значения которых входят в ключ запроса
+     */
+    public Coalescing(Duration maxWait, String... varyHeaders) {
+        this.maxWait = maxWait;
+        this.varyHeaders = List.of(varyHeaders);
+    }
+
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    public List<String> getVaryHeaders() {
+        return varyHeaders;
+    }
+}
@@ -1,12 +1,17 @@
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Реализация чтения-записи в соединении (канале).
@@ -17,38 +22,99 @@ import java.util.stream.Stream;
  * записывает байты ответа в канал.
  */
 class Connection {
-    // Чтение производится порциями по 8 КБ
+    // Начальный размер буфера чтения по умолчанию
     static final int READ_BUFFER_SIZE = 8192;
 
-    // Допустимые методы
-    private static final Set<String> HTTP_METHODS = Stream.of(
-            "GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "CONNECT", "OPTIONS", "TRACE"
-    ).collect(Collectors.toUnmodifiableSet());
+    // Сколько байт недочитанного запроса отбрасывается перед закрытием
+    private static final long LINGER_LIMIT = 1024 * 1024;
+
+    // Идентификаторы для событий JFR
+    private static final AtomicLong CONNECTION_IDS = new AtomicLong();
+
+    private static final AtomicLong REQUEST_IDS = new AtomicLong();
+
+    private final long id = CONNECTION_IDS.incrementAndGet();
+
+    private long requestId;
+
+    // События JFR, если они включены
+    private ServerEvents.HeaderParse headerEvent;
+
+    private ServerEvents.ResponseWrite writeEvent;
 
     private final SocketChannel channel;
 
+    // TLS поверх канала или null для обычного соединения
+    private final TlsChannel tls;
+
+    // Канал, через который выполняются чтение и запись
+    private final ByteChannel transport;
+
     // Промежуточное место хранения заголовков
     private final List<String> lines = new ArrayList<>();
 
-    // Буфер чтения
+    // Буфер чтения, выделяется при поступлении данных
     private ByteBuffer readBuffer;
 
+    // Память, зарезервированная под буфер чтения заголовков
+    private int readBufferReserved;
+
+    // Размер заголовков текущего запроса
+    private int headerBytes;
+
+    // Подбор размера буфера чтения
+    private final ReadBufferSizer sizer;
+
     // Буфер записи
     private ByteBuffer writeBuffer;
 
+    // Ответ отправлен до того, как запрос прочитан полностью
+    private boolean lingering;
+
+    // Отброшено байт после отправки такого ответа
+    private long discarded;
+
     // Состояние
     private State state;
 
     private Request request;
 
+    // Потоковый разбор multipart/form-data
+    private MultipartParser multipart;
+
+    // Сколько байт тела еще осталось прочитать
+    private long bodyRemaining;
+
+    // Лимит памяти сервера
+    private final MemoryBudget budget;
+
+    // Память, зарезервированная соединением
+    private long reserved;
+
     /**
      * Конструктор
      *
      * @param channel
      */
     public Connection(SocketChannel channel) {
+        this(channel, null, new MemoryBudget(Long.MAX_VALUE, Integer.MAX_VALUE),
+                new ReadBufferSizer(READ_BUFFER_SIZE, READ_BUFFER_SIZE, READ_BUFFER_SIZE, false));
+    }
+
+    /**
+     * Конструктор
+     *
+     * @param channel
+     * @param tls     TLS поверх channel или null
+     * @param budget  лимит памяти сервера
+     * @param sizer   подбор размера буфера чтения
+     */
+    Connection(SocketChannel channel, TlsChannel tls, MemoryBudget budget, ReadBufferSizer sizer) {
         this.channel = channel;
-        readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.tls = tls;
+        this.transport = tls != null ? tls : channel;
+        this.budget = budget;
+        this.sizer = sizer;
         state = State.READ_HEADERS;
     }
 
@@ -56,6 +122,28 @@ class Connection {
         return channel;
     }
 
+    long getId() {
+        return id;
+    }
+
+    long getRequestId() {
+        return requestId;
+    }
+
+    boolean isSecure() {
+        return tls != null;
+    }
+
+    /**
+     * Соединение еще не получило ни одного байта запроса.
+     *
+     * @return
+     */
+    boolean isIdle() {
+        return state == State.READ_HEADERS && lines.isEmpty()
+                && (readBuffer == null || readBuffer.position() == 0);
+    }
+
     public State getState() {
         return state;
     }
@@ -75,32 +163,107 @@ class Connection {
      * @param response
      */
     public void sendResponse(Response response) {
+        if (state != State.READY_WRITE) {
+            // Ответ с ошибкой на недочитанный запрос: остаток запроса
+            // отбрасывается после записи ответа
+            lingering = true;
+            state = State.READY_WRITE;
+            releaseReadBuffer();
+        }
+        if (ServerEvents.isActive()) {
+            ServerEvents.ResponseWrite event = new ServerEvents.ResponseWrite();
+            if (event.isEnabled()) {
+                event.begin();
+                writeEvent = event;
+            }
+        }
+        if (response instanceof FrozenResponse frozen) {
+            // Общий буфер не копируется и в лимите памяти не учитывается
+            writeBuffer = frozen.buffer();
+            return;
+        }
         // convert to bytes
         byte[] bytes = response.getBytes();
+        reserve(bytes.length);
         writeBuffer = ByteBuffer.wrap(bytes);
     }
 
     /**
-     * Чтение запроса порциями по 8 КБ
+     * Чтение запроса порциями размером с буфер чтения.
+     * Буфер выделяется при поступлении первых данных и освобождается,
+     * когда запрос прочитан, поэтому простаивающие соединения его не держат.
      *
      * @throws IOException
      * @throws RequestException
      */
     public void read() throws IOException, RequestException {
+        if (state == State.AWAIT_MEMORY) {
+            // Чтение продолжится после allocateBody
+            return;
+        }
+        if (readBuffer == null) {
+            if (state != State.READ_HEADERS) {
+                return;
+            }
+            allocateReadBuffer(sizer.size());
+        }
+        try {
+            readRequest();
+        } finally {
+            if (state == State.READY_WRITE) {
+                releaseReadBuffer();
+            }
+        }
+    }
+
+    private void readRequest() throws IOException, RequestException {
         int read;
-        while ((read = channel.read(readBuffer)) > 0) {
+        while ((read = transport.read(readBuffer)) > 0) {
             if (state == State.READ_HEADERS) {
+                if (headerEvent == null && lines.isEmpty() && ServerEvents.isActive()) {
+                    // Первые байты запроса
+                    ServerEvents.HeaderParse event = new ServerEvents.HeaderParse();
+                    if (event.isEnabled()) {
+                        event.begin();
+                        headerEvent = event;
+                    }
+                }
                 int limit = readBuffer.position();
                 readBuffer.rewind();
                 readBuffer.limit(limit);
                 if (!readLines()) {
                     readBuffer.compact();
+                    if (!readBuffer.hasRemaining()) {
+                        // Строка заголовка не поместилась в буфер
+                        growReadBuffer();
+                    }
                 }
+            } else if (state == State.READ_MULTIPART) {
+                readBuffer.flip();
+                readMultipart();
             }
+            if (multipart != null && state == State.READY_WRITE) {
+                return;
+            }
+            if (state == State.AWAIT_MEMORY) {
+                // Остаток тела будет прочитан после выделения памяти
+                return;
+            }
+        }
+        if (multipart != null) {
+            if (read < 0) {
+                throw new IOException("End of input stream. Connection is closed by the client");
+            }
+            return;
         }
         if (read == 0 && readBuffer.position() == readBuffer.limit()) {
+            if (state == State.READ_BODY && readBuffer.hasArray()) {
+                request.setBody(readBuffer.array());
+            } else if (state == State.READ_BODY) {
+                // Тело отображено во временный файл
+                request.setBodyBuffer(readBuffer.flip());
+            }
             state = State.READY_WRITE;
-            request.setBody(readBuffer.array());
         }
         if (read < 0) {
             throw new IOException("End of input stream. Connection is closed by the client");
@@ -109,15 +272,93 @@ class Connection {
 
     /**
      * Запись ответа в канал.
+     * Канал неблокирующий, поэтому ответ может записываться за несколько вызовов.
      *
+     * @return true, если ответ записан полностью и соединение можно закрывать
      * @throws IOException
      */
-    public void write() throws IOException {
-        int write = channel.write(writeBuffer);
+    public boolean write() throws IOException {
+        if (writeBuffer == null) {
+            // Ответ еще не готов
+            flush();
+            return false;
+        }
+        int write = transport.write(writeBuffer);
         if (write < 0) {
             throw new IOException("End of output stream. Connection is closed by the client");
         }
-        state = State.READY_CLOSE;
+        if (writeBuffer.hasRemaining() || !flush()) {
+            if (writeEvent != null) {
+                writeEvent.partialWrites++;
+            }
+            return false;
+        }
+        state = lingering ? State.LINGER : State.READY_CLOSE;
+        if (writeEvent != null) {
+            writeEvent.end();
+            if (writeEvent.shouldCommit()) {
+                writeEvent.connectionId = id;
+                writeEvent.requestId = requestId;
+                writeEvent.bytes = writeBuffer.limit();
+                writeEvent.commit();
+            }
+            writeEvent = null;
+        }
+        if (lingering) {
+            // Клиент может еще отправлять запрос. Если закрыть соединение
+            // с непрочитанными данными, ОС отправит RST, и клиент может
+            // потерять ответ. Поэтому сначала закрывается только запись.
+            if (tls != null) {
+                tls.shutdownOutput();
+            } else {
+                channel.shutdownOutput();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Отбрасывает остаток запроса после ответа с ошибкой.
+     *
+     * @return true, если соединение можно закрывать
+     * @throws IOException
+     */
+    public boolean discard() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int read;
+        while ((read = channel.read(buffer)) > 0) {
+            discarded += read;
+            buffer.clear();
+        }
+        return read < 0 || discarded > LINGER_LIMIT;
+    }
+
+    /**
+     * Дописывает в канал данные TLS, не принятые сокетом ранее.
+     *
+     * @return true, если данных для записи не осталось
+     * @throws IOException
+     */
+    public boolean flush() throws IOException {
+        return tls == null || tls.flush();
+    }
+
+    /**
+     * События селектора, которых ждет соединение.
+     *
+     * @return
+     */
+    public int interestOps() {
+        int ops = SelectionKey.OP_READ;
+        if (state == State.AWAIT_MEMORY) {
+            // Чтение приостановлено до освобождения памяти
+            ops = 0;
+        } else if (state == State.READY_WRITE) {
+            // Пока ответ не готов, соединение ничего не ждет
+            ops = writeBuffer != null ? SelectionKey.OP_WRITE : 0;
+        }
+        return tls != null ? tls.interestOps(ops) : ops;
     }
 
     /**
@@ -127,16 +368,17 @@ class Connection {
      */
     private void parseHeaders() throws RequestException {
         request = new Request();
+        requestId = REQUEST_IDS.incrementAndGet();
         if (lines.isEmpty()) {
             // 400 Bad request
             throw new RequestException(400);
         }
-        String[] startLine = lines.get(0).split("\\s");
+        String[] startLine = lines.get(0).split(" ");
         if (startLine.length != 3) {
             // 400 Bad request
             throw new RequestException(400);
         }
-        if (!HTTP_METHODS.contains(startLine[0])) {
+        if (!isHttpMethod(startLine[0])) {
             // 400 Bad request
             throw new RequestException(400);
         }
@@ -180,23 +422,149 @@ class Connection {
             request.addHeader(key, val);
         }
 
+        sizer.observe(headerBytes);
+
+        if (headerEvent != null) {
+            headerEvent.end();
+            if (headerEvent.shouldCommit()) {
+                headerEvent.connectionId = id;
+                headerEvent.requestId = requestId;
+                headerEvent.method = request.getMethod();
+                headerEvent.path = request.getPath();
+                headerEvent.headerLines = lines.size();
+                headerEvent.commit();
+            }
+            headerEvent = null;
+        }
+
         // Размер тела определяется заголовком "Content-Length"
-        int contentLength = 0;
+        long contentLength = 0;
         try {
-            contentLength = Integer.parseInt(request.getHeaders().getOrDefault("Content-Length", "0"));
+            contentLength = Long.parseLong(request.getHeaders().getOrDefault("Content-Length", "0"));
         } catch (Exception e) {
             throw new RequestException(400);
         }
+        if (contentLength < 0) {
+            throw new RequestException(400);
+        }
+        String contentType = request.getHeaders().getOrDefault("Content-Type", "");
         if (contentLength == 0) {
             state = State.READY_WRITE;
-        } else {
+        } else if (contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            // Тело не накапливается целиком, а разбирается по мере чтения
+            String boundary = MultipartParser.parseParameters(contentType).get("boundary");
+            multipart = new MultipartParser(boundary, READ_BUFFER_SIZE,
+                    MultipartParser.MEMORY_THRESHOLD, MultipartParser.MEMORY_LIMIT);
+            bodyRemaining = contentLength;
+            state = State.READ_MULTIPART;
+            try {
+                readMultipart();
+            } catch (IOException e) {
+                // 500 Internal Server Error
+                throw new RequestException(500);
+            }
+        } else if (contentLength > Integer.MAX_VALUE - 8) {
+            // 413 Payload Too Large
+            throw new RequestException(413);
+        } else if (budget.shouldSpill(contentLength)) {
+            // Большое тело не занимает кучу
             state = State.READ_BODY;
-            ByteBuffer newBuffer = ByteBuffer.allocate(contentLength);
+            ByteBuffer newBuffer;
+            try {
+                newBuffer = mapTempFile(contentLength);
+            } catch (IOException e) {
+                // 500 Internal Server Error
+                throw new RequestException(500);
+            }
+            readBuffer.limit(readBuffer.position() + Math.min(readBuffer.remaining(), newBuffer.capacity()));
             newBuffer.put(readBuffer);
+            releaseReadBuffer();
             readBuffer = newBuffer;
+        } else {
+            bodyRemaining = contentLength;
+            state = State.AWAIT_MEMORY;
+            if (!allocateBody()) {
+                // Ожидающее соединение не держит память под буфер заголовков,
+                // иначе ожидающие могут занять весь лимит и не дождаться друг друга.
+                // Уже прочитанное начало тела (не больше буфера чтения)
+                // копируется в отдельный буфер вне учета.
+                ByteBuffer head = ByteBuffer.allocate((int) Math.min(readBuffer.remaining(), contentLength));
+                readBuffer.limit(readBuffer.position() + head.capacity());
+                head.put(readBuffer).flip();
+                releaseReadBuffer();
+                readBuffer = head;
+            }
+        }
+    }
+
+    /**
+     * Повторная попытка выделить память под тело запроса.
+     *
+     * @return true, если память выделена и чтение можно продолжить
+     */
+    public boolean allocateBody() {
+        if (state != State.AWAIT_MEMORY || !budget.tryReserve(bodyRemaining)) {
+            return false;
+        }
+        reserved += bodyRemaining;
+        state = State.READ_BODY;
+        ByteBuffer newBuffer = ByteBuffer.allocate((int) bodyRemaining);
+        readBuffer.limit(readBuffer.position() + Math.min(readBuffer.remaining(), newBuffer.capacity()));
+        newBuffer.put(readBuffer);
+        releaseReadBuffer();
+        readBuffer = newBuffer;
+        return true;
+    }
+
+    // Отображение временного файла в память.
+    // Файл удаляется при закрытии канала, отображение остается доступным.
+    private static ByteBuffer mapTempFile(long size) throws IOException {
+        Path path = Files.createTempFile("body-", ".tmp");
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            return file.map(FileChannel.MapMode.READ_WRITE, 0, size);
         }
     }
 
+    private void allocateReadBuffer(int size) {
+        readBuffer = ByteBuffer.allocate(size);
+        reserve(size);
+        readBufferReserved = size;
+    }
+
+    // Увеличение буфера чтения с сохранением данных
+    private void growReadBuffer() throws RequestException {
+        int size = sizer.grow(readBuffer.capacity());
+        if (size < 0) {
+            // 431 Request Header Fields Too Large
+            throw new RequestException(431);
+        }
+        ByteBuffer old = readBuffer;
+        releaseReadBuffer();
+        allocateReadBuffer(size);
+        old.flip();
+        readBuffer.put(old);
+    }
+
+    // Освобождение буфера чтения заголовков.
+    // Буфер тела запроса остается в учете до закрытия соединения.
+    private void releaseReadBuffer() {
+        if (readBufferReserved > 0) {
+            budget.release(readBufferReserved);
+            reserved -= readBufferReserved;
+            readBufferReserved = 0;
+            if (state == State.READY_WRITE) {
+                readBuffer = null;
+            }
+        }
+    }
+
+    // Учет памяти соединения
+    private void reserve(long bytes) {
+        budget.reserve(bytes);
+        reserved += bytes;
+    }
+
     /**
      * Чтение строк, заканчивающихся CR-LF.
      *
@@ -213,6 +581,11 @@ class Connection {
 
             if (first == '\r' && second == '\n') {
                 // one line read
+                headerBytes += cur - pos + 2;
+                if (headerBytes > sizer.getMax()) {
+                    // 431 Request Header Fields Too Large
+                    throw new RequestException(431);
+                }
                 if (cur == pos) {
                     // last empty line read
                     readBuffer.position(cur + 2);
@@ -230,22 +603,56 @@ class Connection {
                 cur++;
             }
         }
-        if (cur != pos && pos == readBuffer.position()) {
-            // Line too long
-            throw new RequestException(431);
-        }
         readBuffer.position(pos);
         return false;
     }
 
+    /**
+     * Передает очередную порцию тела в разборщик multipart/form-data.
+     * Буфер чтения должен быть в режиме чтения, после вызова он очищается.
+     *
+     * @throws IOException
+     * @throws RequestException
+     */
+    private void readMultipart() throws IOException, RequestException {
+        int n = (int) Math.min(readBuffer.remaining(), bodyRemaining);
+        readBuffer.limit(readBuffer.position() + n);
+        multipart.feed(readBuffer);
+        bodyRemaining -= n;
+        readBuffer.clear();
+        if (bodyRemaining == 0) {
+            multipart.finish();
+            request.setParts(multipart.getParts());
+            state = State.READY_WRITE;
+        }
+    }
+
     public void close() throws IOException {
-        channel.close();
+        if (multipart != null) {
+            // Временные файлы больше не нужны
+            multipart.discard();
+            multipart = null;
+        }
+        budget.release(reserved);
+        reserved = 0;
+        transport.close();
+    }
+
+    // Допустимые методы
+    private static boolean isHttpMethod(String method) {
+        return switch (method) {
+            case "GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "CONNECT", "OPTIONS", "TRACE" -> true;
+            default -> false;
+        };
     }
 
     public enum State {
         READ_HEADERS,
         READ_BODY,
+        READ_MULTIPART,
+        AWAIT_MEMORY,
         READY_WRITE,
+        LINGER,
         READY_CLOSE
     }
 
@@ -0,0 +1,130 @@
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Неизменяемый ответ, сериализованный один раз.
+ * Байты ответа хранятся в direct-буфере только для чтения, и каждое
+ * соединение записывает их через собственное представление duplicate()
+ * без копирования. Подходит для частых одинаковых ответов: проверок
+ * состояния, ошибок и т.п. Создается методом {@link Response#freeze()}.
+ */
+public class FrozenResponse extends Response {
+    // Ответы с ошибками сервера по коду, создаются при первом обращении
+    private static final FrozenResponse[] ERRORS = new FrozenResponse[600];
+
+    private final Map<String, String> headers;
+
+    private final byte[] body;
+
+    // Сериализованный ответ
+    private final ByteBuffer bytes;
+
+    /**
+     * Конструктор
+     *
+     * @param response ответ, который сериализуется
+     */
+    FrozenResponse(Response response) {
+        this(response, true);
+    }
+
+    /**
+     * Конструктор
+     *
+     * @param response ответ, который сериализуется
+     * @param direct   хранить байты в direct-буфере. Direct-память освобождается
+     *                 только сборщиком мусора, поэтому она подходит для долгоживущих
+     *                 общих ответов, а не для ответов, нужных недолго
+     */
+    FrozenResponse(Response response, boolean direct) {
+        super(response.getStatusCode());
+        byte[] serialized = response.getBytes();
+        headers = Collections.unmodifiableMap(new HashMap<>(response.getHeaders()));
+        body = response.getBody().clone();
+        if (direct) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(serialized.length);
+            buffer.put(serialized).flip();
+            bytes = buffer.asReadOnlyBuffer();
+        } else {
+            bytes = ByteBuffer.wrap(serialized).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Общий ответ без тела для http-кода, например, ошибки сервера.
+     *
+     * @param statusCode
+     * @return
+     */
+    public static FrozenResponse of(int statusCode) {
+        if (statusCode < 0 || statusCode >= ERRORS.length) {
+            return new Response(statusCode).freeze();
+        }
+        FrozenResponse response = ERRORS[statusCode];
+        if (response == null) {
+            // Гонка безопасна: в худшем случае ответ будет создан дважды
+            response = new Response(statusCode).freeze();
+            ERRORS[statusCode] = response;
+        }
+        return response;
+    }
+
+    /**
+     * Представление сериализованного ответа с собственной позицией.
+     *
+     * @return
+     */
+    ByteBuffer buffer() {
+        return bytes.duplicate();
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public void setHeaders(Map<String, String> headers) {
+        throw new UnsupportedOperationException("Response is frozen");
+    }
+
+    /**
+     * Копия тела ответа.
+     *
+     * @return
+     */
+    @Override
+    public byte[] getBody() {
+        return body.clone();
+    }
+
+    @Override
+    public void setBody(byte[] body) {
+        throw new UnsupportedOperationException("Response is frozen");
+    }
+
+    @Override
+    public void addHeader(String key, String value) {
+        throw new UnsupportedOperationException("Response is frozen");
+    }
+
+    /**
+     * Копия сериализованного ответа.
+     *
+     * @return
+     */
+    @Override
+    public byte[] getBytes() {
+        ByteBuffer buffer = buffer();
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        return copy;
+    }
+
+    @Override
+    public FrozenResponse freeze() {
+        return this;
+    }
+}
@@ -1,9 +1,22 @@
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.security.GeneralSecurityException;
 import java.nio.channels.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+
 record ListenerPair(String endPoint, String method) {
     @Override
     public boolean equals(Object o) {
@@ -13,23 +26,78 @@ record ListenerPair(String endPoint, String method) {
     }
 }
 
+// Обработчик и настройки объединения запросов (null, если не объединяются)
+record Route(Handler handler, Coalescing coalescing) {
+}
+
 // HTTP/1.1 сервер
 public class HTTPServer {
     private static final Logger LOGGER = Logger.getLogger(HTTPServer.class.getName());
 
+    // Размер кэша сессий TLS для возобновления без полного рукопожатия
+    static final int TLS_SESSION_CACHE_SIZE = 20_000;
+
+    // Время жизни сессии TLS в секундах
+    static final int TLS_SESSION_TIMEOUT = 3600;
+
+    // Сколько свободных буферов TLS хранится в пуле
+    static final int TLS_POOLED_BUFFERS = 256;
+
+    // Тела больше этого размера по умолчанию отображаются во временные файлы
+    static final long DEFAULT_SPILL_THRESHOLD = 16 * 1024 * 1024;
+
     private final InetSocketAddress inetSocketAddress;
 
+    // Настройки сервера
+    private final ServerConfig config;
+
+    // Контекст TLS или null для HTTP
+    private final SSLContext sslContext;
+
+    // Подбор размера буферов чтения
+    private final ReadBufferSizer sizer;
+
+    // Пулы буферов TLS
+    private BufferPool netBuffers;
+
+    private BufferPool appBuffers;
+
+    // Пул потоков для задач рукопожатия TLS
+    private ExecutorService tlsExecutor;
+
+    // Задачи, которые другие потоки передают в основной цикл
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
     // Карта соединений
     private final Map<SocketChannel, Connection> connections = new HashMap<>();
 
-    // Карта обработчиков
-    private final Map<ListenerPair, Handler> listeners = new HashMap<>();
+    // Карта обработчиков. Неизменяемая: при изменении заменяется копией,
+    // поэтому основной цикл читает ее без блокировок
+    private volatile Map<ListenerPair, Route> listeners = Map.of();
+
+    // Выполняющиеся обработчики с объединением запросов
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
+    // Пул потоков для обработчиков с объединением запросов
+    private ExecutorService workers;
+
+    // Лимит памяти под буферы, тела запросов и ответы
+    private final MemoryBudget memoryBudget;
+
+    // Соединения, ожидающие памяти под тело запроса, в порядке очереди
+    private final Deque<PausedRead> paused = new ArrayDeque<>();
 
     private Selector selector;
 
     private ServerSocketChannel serverSocketChannel;
 
-    private boolean running = false;
+    private volatile boolean running = false;
+
+    // Срок завершения текущих запросов (System.nanoTime), если сервер
+    // перестал принимать соединения
+    private long drainDeadline;
+
+    private boolean draining = false;
 
     /**
      * Конструктор
@@ -38,7 +106,33 @@ public class HTTPServer {
      * @param port
      */
     public HTTPServer(String address, int port) {
+        this(address, port, ServerConfig.builder().build());
+    }
+
+    /**
+     * Конструктор сервера HTTPS
+     *
+     * @param address
+     * @param port
+     * @param sslContext контекст TLS или null для HTTP
+     */
+    public HTTPServer(String address, int port, SSLContext sslContext) {
+        this(address, port, ServerConfig.builder().sslContext(sslContext).build());
+    }
+
+    /**
+     * Конструктор
+     *
+     * @param address
+     * @param port
+     * @param config  настройки сервера
+     */
+    public HTTPServer(String address, int port, ServerConfig config) {
         inetSocketAddress = new InetSocketAddress(address, port);
+        this.config = config;
+        this.sslContext = config.getSslContext();
+        this.memoryBudget = config.getMemoryBudget();
+        this.sizer = ReadBufferSizer.of(config);
     }
 
     /**
@@ -49,8 +143,51 @@ public class HTTPServer {
      * @param handler
      */
     public void addListener(String endPoint, String method, Handler handler) {
+        addListener(endPoint, method, handler, null);
+    }
+
+    /**
+     * Добавляет обработчик с объединением одинаковых запросов.
+     * Такой обработчик выполняется в отдельном пуле потоков, а пока он
+     * выполняется, одинаковые запросы ждут его ответа, не запуская его заново.
+     * Ответ сериализуется один раз и отправляется во все ожидающие соединения.
+     *
+     * @param endPoint
+     * @param method
+     * @param handler
+     * @param coalescing настройки объединения или null
+     */
+    public synchronized void addListener(String endPoint, String method, Handler handler, Coalescing coalescing) {
+        Map<ListenerPair, Route> copy = new HashMap<>(listeners);
+        copy.put(new ListenerPair(endPoint, method), new Route(handler, coalescing));
+        listeners = Map.copyOf(copy);
+    }
+
+    /**
+     * Удаляет обработчик. Запросы, которые он уже обрабатывает, завершаются.
+     *
+     * @param endPoint
+     * @param method
+     * @return false, если обработчик не был задан
+     */
+    public synchronized boolean removeListener(String endPoint, String method) {
         ListenerPair listener = new ListenerPair(endPoint, method);
-        listeners.put(listener, handler);
+        if (!listeners.containsKey(listener)) {
+            return false;
+        }
+        Map<ListenerPair, Route> copy = new HashMap<>(listeners);
+        copy.remove(listener);
+        listeners = Map.copyOf(copy);
+        return true;
+    }
+
+    /**
+     * Лимит памяти с текущим расходом и числом приостановок чтения.
+     *
+     * @return
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
     }
 
     /**
@@ -65,11 +202,56 @@ public class HTTPServer {
             LOGGER.severe(e.getMessage());
         } finally {
             stop();
+            closeConnections();
+        }
+    }
+
+    /**
+     * Плавно останавливает сервер: перестает принимать соединения, закрывает
+     * соединения без начатых запросов и ждет ответов на остальные запросы, но
+     * не дольше timeout, после чего останавливает сервер. Возвращает управление
+     * сразу, а start() завершается после остановки.
+     *
+     * @param timeout
+     */
+    public void drain(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        pendingTasks.add(() -> {
+            if (draining) {
+                return;
+            }
+            draining = true;
+            drainDeadline = deadline;
+            LOGGER.info("Draining " + connections.size() + " connections.");
+            try {
+                // Зарегистрированный канал закрывается только после снятия
+                // регистрации в select, поэтому снимаем ее сразу: новые
+                // соединения получают отказ, а не ждут в очереди
+                serverSocketChannel.keyFor(selector).cancel();
+                selector.selectNow();
+                serverSocketChannel.close();
+            } catch (IOException e) {
+                LOGGER.warning("Error during closing server socket. Ignoring.");
+                LOGGER.warning(e.getMessage());
+            }
+            List<SelectionKey> idle = new ArrayList<>();
+            for (Connection connection : connections.values()) {
+                if (connection.isIdle()) {
+                    idle.add(connection.getChannel().keyFor(selector));
+                }
+            }
+            for (SelectionKey key : idle) {
+                closeChannel(key);
+            }
+        });
+        if (selector != null) {
+            selector.wakeup();
         }
     }
 
     /**
-     * Останавливает сервер
+     * Останавливает сервер. Открытые соединения закрываются потоком
+     * сервера, когда start() выходит из основного цикла.
      */
     public void stop() {
         if (running) {
@@ -78,13 +260,11 @@ public class HTTPServer {
                 LOGGER.info("Stopping server.");
                 selector.close();
                 serverSocketChannel.close();
-                for (Connection connection : connections.values()) {
-                    try {
-                        connection.close();
-                    } catch (IOException e) {
-                        LOGGER.warning("Error during closing connection. Ignoring.");
-                        LOGGER.warning(e.getMessage());
-                    }
+                if (tlsExecutor != null) {
+                    tlsExecutor.shutdownNow();
+                }
+                if (workers != null) {
+                    workers.shutdownNow();
                 }
             } catch (IOException e) {
                 LOGGER.warning("Error during stopping server. Ignoring.");
@@ -93,14 +273,55 @@ public class HTTPServer {
         }
     }
 
+    // Закрытие оставшихся соединений после выхода из основного цикла.
+    // Выполняется в потоке цикла: stop() может вызываться из другого потока,
+    // пока цикл еще изменяет карту соединений.
+    private void closeConnections() {
+        for (Connection connection : connections.values()) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                LOGGER.warning("Error during closing connection. Ignoring.");
+                LOGGER.warning(e.getMessage());
+            }
+        }
+        connections.clear();
+    }
+
     // Инициализация
     private void init() throws IOException {
+        if (config.isPreTouch()) {
+            preTouch();
+        }
         selector = Selector.open();
         serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.bind(inetSocketAddress);
+        serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, config.isReuseAddress());
+        if (config.isReusePort()) {
+            if (serverSocketChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            } else {
+                LOGGER.warning("SO_REUSEPORT is not supported. Ignoring.");
+            }
+        }
+        if (config.getReceiveBufferSize() > 0) {
+            // Задается до bind, чтобы принятые соединения унаследовали
+            // его вместе с масштабированием окна TCP
+            serverSocketChannel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+        }
+        serverSocketChannel.bind(inetSocketAddress, config.getBacklog());
         serverSocketChannel.configureBlocking(false);
         serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
 
+        if (sslContext != null) {
+            initTls();
+        }
+
+        workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
         // register a simple graceful shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
@@ -117,13 +338,90 @@ public class HTTPServer {
         LOGGER.info("Server is now listening on port: " + inetSocketAddress.getPort());
     }
 
+    // Режим быстрого старта: загрузка и инициализация классов основного пути
+    // запроса до того, как сервер начнет принимать соединения
+    private void preTouch() {
+        long start = System.nanoTime();
+        Connection.State.values();
+        Request request = new Request();
+        request.addHeader("Host", "localhost");
+        request.addQuery("key", "value");
+        new Response(200).getBytes();
+        // Ответы, которые сервер отправляет сам
+        for (int code : new int[]{400, 404, 413, 431, 500, 503, 505}) {
+            FrozenResponse.of(code);
+        }
+        MultipartParser.parseParameters("form-data; name=\"field\"; filename=\"file\"");
+        if (sslContext != null) {
+            TlsChannel.warmUp(sslContext);
+        }
+        LOGGER.info("Pre-touch took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // Инициализация TLS
+    private void initTls() {
+        // Сессии кэшируются на сервере, а клиенты с билетами сессий
+        // (session tickets, включены в JDK по умолчанию) возобновляют их
+        // без полного рукопожатия. Настройки кэша, заданные вызывающим
+        // в контексте, не меняются.
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        SSLSessionContext defaults = defaultSessionContext();
+        if (defaults != null && sessionContext.getSessionCacheSize() == defaults.getSessionCacheSize()) {
+            sessionContext.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+        }
+        if (defaults != null && sessionContext.getSessionTimeout() == defaults.getSessionTimeout()) {
+            sessionContext.setSessionTimeout(TLS_SESSION_TIMEOUT);
+        }
+
+        SSLSession session = sslContext.createSSLEngine().getSession();
+        netBuffers = new BufferPool(session.getPacketBufferSize(), TLS_POOLED_BUFFERS);
+        appBuffers = new BufferPool(session.getApplicationBufferSize(), TLS_POOLED_BUFFERS);
+
+        tlsExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "tls-task");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Кэш сессий нового контекста того же протокола с настройками по умолчанию
+    private SSLSessionContext defaultSessionContext() {
+        try {
+            SSLContext context = SSLContext.getInstance(sslContext.getProtocol(), sslContext.getProvider());
+            context.init(new KeyManager[0], new TrustManager[0], null);
+            return context.getServerSessionContext();
+        } catch (GeneralSecurityException e) {
+            LOGGER.warning("Cannot read default TLS session settings. Keeping the context settings.");
+            return null;
+        }
+    }
+
     // Основной цикл
     private void loop() {
         running = true;
         while (running) {
             try {
-                selector.select();
+                long selectStart = System.nanoTime();
+                selector.select(selectTimeout(selectStart));
+                ServerEvents.SelectorLoop event = ServerEvents.isActive() ? new ServerEvents.SelectorLoop() : null;
+                if (event != null) {
+                    event.begin();
+                }
+                long selectWait = System.nanoTime() - selectStart;
+
+                int tasks = 0;
+                Runnable task;
+                while ((task = pendingTasks.poll()) != null) {
+                    task.run();
+                    tasks++;
+                }
+                for (SelectionKey key : coalescer.expire(System.nanoTime())) {
+                    // 503 Service Unavailable
+                    respond(key, FrozenResponse.of(503));
+                }
+                expirePaused(System.nanoTime());
                 Set<SelectionKey> keys = selector.selectedKeys();
+                int selectedKeys = keys.size();
                 Iterator<SelectionKey> keyIterator = keys.iterator();
 
                 while (keyIterator.hasNext()) {
@@ -141,7 +439,32 @@ public class HTTPServer {
                             write(key);
                         }
                     } catch (Exception e) {
+                        // Соединение в неизвестном состоянии, закрываем его
+                        if (key.channel() instanceof SocketChannel) {
+                            closeChannel(key);
+                        }
+                    }
+                }
+
+                if (!paused.isEmpty()) {
+                    // Память могла освободиться не только при закрытии соединения
+                    resumePaused();
+                }
+
+                if (event != null) {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.selectedKeys = selectedKeys;
+                        event.pendingTasks = tasks;
+                        event.selectWait = selectWait;
+                        event.commit();
+                    }
+                }
+                if (draining && (connections.isEmpty() || System.nanoTime() - drainDeadline >= 0)) {
+                    if (!connections.isEmpty()) {
+                        LOGGER.warning("Drain timeout expired, closing " + connections.size() + " connections.");
                     }
+                    stop();
                 }
             } catch (ClosedSelectorException e) {
                 LOGGER.severe("Selector is closed. Stopping server.");
@@ -154,12 +477,52 @@ public class HTTPServer {
         }
     }
 
+    // Время ожидания select в мс: до ближайшего истечения ожидания объединенного
+    // запроса или памяти либо срока завершения запросов, 0 - без ограничения
+    private long selectTimeout(long now) {
+        long timeout = coalescer.nextTimeout(now);
+        if (draining) {
+            long drain = Math.max(1, (drainDeadline - now + 999_999) / 1_000_000);
+            timeout = timeout == 0 ? drain : Math.min(timeout, drain);
+        }
+        if (!paused.isEmpty()) {
+            long wait = Math.max(1, (paused.peekFirst().deadline() - now + 999_999) / 1_000_000);
+            timeout = timeout == 0 ? wait : Math.min(timeout, wait);
+        }
+        return timeout;
+    }
+
     // Прием входящих соединений
     private void accept() throws IOException {
         SocketChannel channel = serverSocketChannel.accept();
+        if (channel == null) {
+            return;
+        }
         channel.configureBlocking(false);
-        channel.register(selector, SelectionKey.OP_READ);
-        connections.put(channel, new Connection(channel));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+        if (config.getSendBufferSize() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBufferSize());
+        }
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        TlsChannel tls = null;
+        if (sslContext != null) {
+            SSLEngine engine = sslContext.createSSLEngine();
+            engine.setUseClientMode(false);
+            tls = new TlsChannel(channel, engine, netBuffers, appBuffers, tlsExecutor,
+                    () -> resume(key));
+        }
+        Connection connection = new Connection(channel, tls, memoryBudget, sizer);
+        connections.put(channel, connection);
+
+        if (ServerEvents.isActive()) {
+            ServerEvents.ConnectionAccept event = new ServerEvents.ConnectionAccept();
+            if (event.shouldCommit()) {
+                event.connectionId = connection.getId();
+                event.remoteAddress = String.valueOf(channel.getRemoteAddress());
+                event.secure = connection.isSecure();
+                event.commit();
+            }
+        }
         LOGGER.info("Connection accepted: " + channel + ", active connections: " + connections.size());
     }
 
@@ -167,6 +530,26 @@ public class HTTPServer {
     private void read(SelectionKey key) throws IOException {
         SocketChannel clientChannel = (SocketChannel) key.channel();
         Connection connection = connections.get(clientChannel);
+        if (connection.getState() == Connection.State.LINGER) {
+            // Ответ с ошибкой отправлен, ждем, пока клиент закончит запрос
+            if (connection.discard()) {
+                closeChannel(key);
+            } else {
+                key.interestOps(connection.interestOps());
+            }
+            return;
+        }
+        if (connection.getState() == Connection.State.READY_WRITE) {
+            // Запрос уже прочитан, ждем записи ответа
+            key.interestOps(connection.interestOps());
+            return;
+        }
+        if (connection.getState() == Connection.State.AWAIT_MEMORY) {
+            // Соединение уже в очереди ожидания памяти (повторный вызов
+            // после задач TLS или из write), чтение продолжит resumePaused
+            key.interestOps(connection.interestOps());
+            return;
+        }
 
         Response response = null;
         try {
@@ -174,50 +557,209 @@ public class HTTPServer {
             if (connection.getState() == Connection.State.READY_WRITE) {
                 Request request = connection.getRequest();
                 ListenerPair listener = new ListenerPair(request.getPath(), request.getMethod());
-                Handler handler = listeners.getOrDefault(listener, null);
+                Route route = listeners.get(listener);
 
-                if (handler != null) {
-                    response = handler.apply(request);
+                if (route != null && route.coalescing() != null && !hasBody(request)) {
+                    // Ответ придет из пула потоков
+                    coalesce(key, connection, request, route);
+                } else if (route != null) {
+                    response = invoke(route, connection, request, false);
                 } else {
                     // 404 Not Found
-                    response = new Response(404);
+                    response = FrozenResponse.of(404);
                 }
-            } else {
-                // keep reading
-                key.interestOps(SelectionKey.OP_READ);
             }
         } catch (Connection.RequestException e) {
-            response = new Response(e.getErrorCode());
+            response = FrozenResponse.of(e.getErrorCode());
         }
 
+        if (connection.getState() == Connection.State.AWAIT_MEMORY) {
+            // Памяти нет: не читаем из соединения, пока она не освободится
+            paused.add(new PausedRead(key, System.nanoTime() + config.getMemoryWait().toNanos()));
+            memoryBudget.paused(paused.size());
+        }
         if (response != null) {
-            key.interestOps(SelectionKey.OP_WRITE);
             // write response
             connection.sendResponse(response);
         }
+        // keep reading or write response
+        key.interestOps(connection.interestOps());
     }
 
     // Запись
     private void write(SelectionKey key) throws IOException {
-        try (SocketChannel clientChannel = (SocketChannel) key.channel()) {
-            Connection connection = connections.get(clientChannel);
-            connection.write();
+        Connection connection = connections.get((SocketChannel) key.channel());
+        if (connection.getState() != Connection.State.READY_WRITE) {
+            // Дописываем данные рукопожатия TLS и продолжаем чтение
+            connection.flush();
+            read(key);
+        } else if (connection.write()) {
             closeChannel(key);
+        } else if (connection.getState() == Connection.State.LINGER) {
+            read(key);
+        } else {
+            key.interestOps(connection.interestOps());
+        }
+    }
+
+    // Запуск обработчика с объединением запросов или ожидание уже запущенного
+    private void coalesce(SelectionKey key, Connection connection, Request request, Route route) {
+        String flight = RequestCoalescer.key(request, route.coalescing());
+        long deadline = System.nanoTime() + route.coalescing().getMaxWait().toNanos();
+        if (coalescer.join(flight, key, deadline)) {
+            return;
+        }
+        workers.execute(() -> {
+            FrozenResponse response;
+            try {
+                // Ответ сериализуется один раз для всех ожидающих. Он нужен
+                // только до отправки, поэтому хранится в куче, а не в direct-буфере
+                Response handled = invoke(route, connection, request, true);
+                response = handled instanceof FrozenResponse frozen ? frozen : new FrozenResponse(handled, false);
+            } catch (Exception e) {
+                LOGGER.warning("Handler failed: " + e);
+                // 500 Internal Server Error
+                response = FrozenResponse.of(500);
+            }
+            FrozenResponse result = response;
+            pendingTasks.add(() -> {
+                for (SelectionKey waiter : coalescer.complete(flight)) {
+                    respond(waiter, result);
+                }
+            });
+            selector.wakeup();
+        });
+    }
+
+    // Запрос с телом, в том числе multipart, тело которого разобрано на части
+    // и в getBody не попадает. Определяется по заголовку, а не по прочитанному телу.
+    private static boolean hasBody(Request request) {
+        return Long.parseLong(request.getHeaders().getOrDefault("Content-Length", "0")) > 0
+                || !request.getParts().isEmpty();
+    }
+
+    // Вызов обработчика с записью события JFR
+    private static Response invoke(Route route, Connection connection, Request request, boolean coalesced) {
+        if (!ServerEvents.isActive()) {
+            return route.handler().apply(request);
+        }
+        ServerEvents.HandlerInvocation event = new ServerEvents.HandlerInvocation();
+        if (!event.isEnabled()) {
+            return route.handler().apply(request);
         }
+        event.begin();
+        Response response = route.handler().apply(request);
+        event.end();
+        if (event.shouldCommit()) {
+            event.connectionId = connection.getId();
+            event.requestId = connection.getRequestId();
+            event.route = request.getMethod() + " " + request.getPath();
+            event.statusCode = response.getStatusCode();
+            event.coalesced = coalesced;
+            event.commit();
+        }
+        return response;
+    }
+
+    // Отправка готового ответа ожидающему соединению
+    private void respond(SelectionKey key, FrozenResponse response) {
+        Connection connection = connections.get((SocketChannel) key.channel());
+        if (connection == null || !key.isValid()) {
+            return;
+        }
+        connection.sendResponse(response);
+        key.interestOps(connection.interestOps());
+    }
+
+    // Продолжение обработки соединения после задач рукопожатия TLS.
+    // Вызывается из пула потоков, поэтому передается в основной цикл.
+    private void resume(SelectionKey key) {
+        pendingTasks.add(() -> {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                if (connections.get((SocketChannel) key.channel()).getState() == Connection.State.READY_WRITE) {
+                    write(key);
+                } else {
+                    read(key);
+                }
+            } catch (Exception e) {
+                closeChannel(key);
+            }
+        });
+        selector.wakeup();
     }
 
     // Закрывает соединение
     private void closeChannel(SelectionKey key) {
         SocketChannel channel = (SocketChannel) key.channel();
-        connections.remove(channel);
+        Connection connection = connections.remove(channel);
         key.cancel();
+
+        if (connection != null && ServerEvents.isActive()) {
+            ServerEvents.ConnectionClose event = new ServerEvents.ConnectionClose();
+            if (event.shouldCommit()) {
+                event.connectionId = connection.getId();
+                event.state = connection.getState().name();
+                event.commit();
+            }
+        }
         LOGGER.info("Closing connection for channel: " + channel + ", active connections: " + connections.size());
 
         try {
-            channel.close();
+            if (connection != null) {
+                // Освобождает ресурсы запроса, в том числе временные файлы
+                connection.close();
+            } else {
+                channel.close();
+            }
         } catch (IOException e) {
             LOGGER.warning("Error during closing channel: " + channel);
             LOGGER.warning(e.getMessage());
         }
+        resumePaused();
+    }
+
+    // Возобновление чтения из соединений, ожидающих памяти, в порядке очереди
+    private void resumePaused() {
+        while (!paused.isEmpty()) {
+            SelectionKey key = paused.peekFirst().key();
+            Connection connection = connections.get((SocketChannel) key.channel());
+            // Закрытые соединения и соединения, уже получившие ответ, пропускаются
+            boolean waiting = connection != null && key.isValid()
+                    && connection.getState() == Connection.State.AWAIT_MEMORY;
+            if (waiting && !connection.allocateBody()) {
+                break;
+            }
+            paused.pollFirst();
+            memoryBudget.resumed(paused.size());
+            if (waiting) {
+                try {
+                    read(key);
+                } catch (Exception e) {
+                    closeChannel(key);
+                }
+            }
+        }
+    }
+
+    // Ответ 503 соединениям, ожидающим памяти дольше срока, чтобы зависший
+    // или отключившийся клиент не занимал очередь бесконечно. Срок ожидания
+    // одинаков, поэтому в начале очереди стоят самые старые.
+    private void expirePaused(long now) {
+        while (!paused.isEmpty() && now - paused.peekFirst().deadline() >= 0) {
+            SelectionKey key = paused.pollFirst().key();
+            memoryBudget.resumed(paused.size());
+            Connection connection = connections.get((SocketChannel) key.channel());
+            if (connection != null && connection.getState() == Connection.State.AWAIT_MEMORY) {
+                // 503 Service Unavailable
+                respond(key, FrozenResponse.of(503));
+            }
+        }
+    }
+
+    // Соединение, ожидающее памяти, и момент (System.nanoTime), после которого ожидание прекращается
+    private record PausedRead(SelectionKey key, long deadline) {
     }
 }
@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общий для сервера лимит памяти под буферы чтения, тела запросов и ответы.
+ * Если память под тело запроса зарезервировать не удается, сервер
+ * приостанавливает чтение из соединения до освобождения памяти.
+ * Тела больше порога не занимают кучу, а отображаются во временные файлы.
+ */
+public class MemoryBudget {
+    private final long limit;
+
+    // Тела больше этого размера отображаются во временные файлы
+    private final long spillThreshold;
+
+    private final AtomicLong used = new AtomicLong();
+
+    private final AtomicLong pauses = new AtomicLong();
+
+    // Число соединений, ожидающих памяти
+    private volatile int paused;
+
+    /**
+     * Конструктор
+     *
+     * @param limit          лимит памяти в байтах
+     * @param spillThreshold размер тела, начиная с которого оно отображается во временный файл
+     */
+    public MemoryBudget(long limit, long spillThreshold) {
+        this.limit = limit;
+        this.spillThreshold = spillThreshold;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Занятая память в байтах.
+     *
+     * @return
+     */
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * Сколько раз чтение приостанавливалось из-за нехватки памяти.
+     *
+     * @return
+     */
+    public long getPauseCount() {
+        return pauses.get();
+    }
+
+    /**
+     * Число соединений, чтение из которых сейчас приостановлено.
+     *
+     * @return
+     */
+    public int getPausedConnections() {
+        return paused;
+    }
+
+    /**
+     * Нужно ли отображать тело такого размера во временный файл.
+     *
+     * @param size
+     * @return
+     */
+    boolean shouldSpill(long size) {
+        return size > spillThreshold || size > limit;
+    }
+
+    /**
+     * Резервирует память, если ее хватает.
+     *
+     * @param bytes
+     * @return true, если память зарезервирована
+     */
+    boolean tryReserve(long bytes) {
+        while (true) {
+            long current = used.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+            if (used.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Учитывает уже выделенную память, даже если лимит превышен.
+     *
+     * @param bytes
+     */
+    void reserve(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    void paused(int connections) {
+        pauses.incrementAndGet();
+        paused = connections;
+    }
+
+    void resumed(int connections) {
+        paused = connections;
+    }
+}
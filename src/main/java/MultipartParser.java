@@ -0,0 +1,415 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Потоковый разбор тела multipart/form-data.
+ * Это класс для внутреннего использования.
+ * Байты тела подаются порциями по мере чтения из канала,
+ * поэтому расход памяти не зависит от размера загрузки:
+ * в памяти находится только окно фиксированного размера и
+ * небольшие поля и заголовки частей, общий размер которых ограничен
+ * на запрос, как и число частей.
+ * Границы частей ищутся алгоритмом Хорспула, файлы записываются
+ * во временные файлы через FileChannel.
+ * <p>
+ * Окно и поля в памяти не учитываются в MemoryBudget.
+ */
+class MultipartParser {
+    // Поля больше этого размера сбрасываются на диск
+    static final int MEMORY_THRESHOLD = 64 * 1024;
+
+    // Общий размер полей и заголовков частей в памяти на запрос. Поля
+    // сбрасываются на диск, когда занята половина, чтобы оставить место
+    // заголовкам следующих частей; заголовки сверх лимита отклоняются с кодом 413
+    static final int MEMORY_LIMIT = 256 * 1024;
+
+    // Максимальное число частей в запросе
+    static final int MAX_PARTS = 1000;
+
+    // Максимальная длина границы по RFC 2046
+    private static final int MAX_BOUNDARY_LENGTH = 70;
+
+    // Разделитель частей: CR-LF "--" boundary
+    private final byte[] delimiter;
+
+    // Таблица сдвигов для поиска разделителя
+    private final int[] skip = new int[256];
+
+    private final int memoryThreshold;
+
+    private final int memoryLimit;
+
+    // Размер заголовков частей и завершенных полей, оставшихся в памяти
+    private long inMemory;
+
+    // Окно, в котором выполняется поиск
+    private final ByteBuffer window;
+
+    private final List<Part> parts = new ArrayList<>();
+
+    private State state = State.PREAMBLE;
+
+    // Текущая часть
+    private Part part;
+
+    private ByteArrayOutputStream memory;
+
+    private FileChannel file;
+
+    private long size;
+
+    /**
+     * Конструктор
+     *
+     * @param boundary        граница из заголовка Content-Type
+     * @param bufferSize      размер окна поиска
+     * @param memoryThreshold размер, после которого поле сбрасывается на диск
+     * @throws Connection.RequestException если граница некорректна
+     */
+    MultipartParser(String boundary, int bufferSize, int memoryThreshold) throws Connection.RequestException {
+        this(boundary, bufferSize, memoryThreshold, MEMORY_LIMIT);
+    }
+
+    /**
+     * Конструктор
+     *
+     * @param boundary        граница из заголовка Content-Type
+     * @param bufferSize      размер окна поиска
+     * @param memoryThreshold размер, после которого поле сбрасывается на диск
+     * @param memoryLimit     общий размер полей и заголовков частей в памяти
+     * @throws Connection.RequestException если граница некорректна
+     */
+    MultipartParser(String boundary, int bufferSize, int memoryThreshold, int memoryLimit)
+            throws Connection.RequestException {
+        if (boundary == null || boundary.isEmpty() || boundary.length() > MAX_BOUNDARY_LENGTH) {
+            // 400 Bad request
+            throw new Connection.RequestException(400);
+        }
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.memoryThreshold = memoryThreshold;
+        this.memoryLimit = memoryLimit;
+
+        int m = delimiter.length;
+        for (int i = 0; i < skip.length; ++i) {
+            skip[i] = m;
+        }
+        for (int i = 0; i < m - 1; ++i) {
+            skip[delimiter[i] & 0xff] = m - 1 - i;
+        }
+
+        window = ByteBuffer.allocate(bufferSize + m);
+        // Первой границе CR-LF не предшествует, добавляем его сами,
+        // чтобы искать везде один и тот же разделитель
+        window.put((byte) '\r').put((byte) '\n');
+    }
+
+    /**
+     * Разбирает очередную порцию тела. Буфер читается полностью.
+     *
+     * @param src буфер в режиме чтения
+     * @throws IOException
+     * @throws Connection.RequestException
+     */
+    void feed(ByteBuffer src) throws IOException, Connection.RequestException {
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), window.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + n);
+            window.put(src);
+            src.limit(limit);
+            process();
+        }
+    }
+
+    /**
+     * Завершает разбор после получения всего тела.
+     *
+     * @throws Connection.RequestException если тело оборвано до закрывающей границы
+     */
+    void finish() throws Connection.RequestException {
+        if (state != State.DONE) {
+            // 400 Bad request
+            throw new Connection.RequestException(400);
+        }
+    }
+
+    List<Part> getParts() {
+        return parts;
+    }
+
+    /**
+     * Удаляет временные файлы всех частей.
+     */
+    void discard() {
+        closeFile();
+        if (part != null) {
+            part.delete();
+        }
+        for (Part p : parts) {
+            p.delete();
+        }
+    }
+
+    // Обработка содержимого окна
+    private void process() throws IOException, Connection.RequestException {
+        window.flip();
+        byte[] a = window.array();
+        int pos = window.position();
+        int limit = window.limit();
+        int m = delimiter.length;
+        boolean progress = true;
+
+        while (progress) {
+            progress = false;
+            switch (state) {
+                case PREAMBLE -> {
+                    int idx = indexOf(a, pos, limit);
+                    if (idx >= 0) {
+                        pos = idx + m;
+                        state = State.BOUNDARY;
+                        progress = true;
+                    } else {
+                        pos = Math.max(pos, limit - (m - 1));
+                    }
+                }
+                case BOUNDARY -> {
+                    if (limit - pos >= 2) {
+                        if (a[pos] == '-' && a[pos + 1] == '-') {
+                            state = State.DONE;
+                            pos = limit;
+                        } else if (a[pos] == '\r' && a[pos + 1] == '\n') {
+                            // CR-LF оставляем: с него начинается поиск конца заголовков
+                            state = State.HEADERS;
+                            progress = true;
+                        } else if (a[pos] == ' ' || a[pos] == '\t') {
+                            // Пробелы после границы допустимы
+                            pos++;
+                            progress = true;
+                        } else {
+                            // 400 Bad request
+                            throw new Connection.RequestException(400);
+                        }
+                    }
+                }
+                case HEADERS -> {
+                    int idx = indexOfHeadersEnd(a, pos, limit);
+                    if (idx >= 0) {
+                        String block = new String(a, pos + 2, Math.max(0, idx - pos - 2), StandardCharsets.UTF_8);
+                        startPart(block);
+                        pos = idx + 4;
+                        state = State.BODY;
+                        progress = true;
+                    } else if (pos == 0 && limit == window.capacity()) {
+                        // 431 Request Header Fields Too Large
+                        throw new Connection.RequestException(431);
+                    }
+                }
+                case BODY -> {
+                    int idx = indexOf(a, pos, limit);
+                    if (idx >= 0) {
+                        write(a, pos, idx - pos);
+                        endPart();
+                        pos = idx + m;
+                        state = State.BOUNDARY;
+                        progress = true;
+                    } else {
+                        // Хвост окна может оказаться началом разделителя
+                        int safe = limit - (m - 1);
+                        if (safe > pos) {
+                            write(a, pos, safe - pos);
+                            pos = safe;
+                        }
+                    }
+                }
+                case DONE -> pos = limit;
+            }
+        }
+
+        window.position(pos);
+        window.compact();
+    }
+
+    // Поиск разделителя алгоритмом Бойера-Мура-Хорспула
+    private int indexOf(byte[] a, int from, int to) {
+        int m = delimiter.length;
+        int i = from;
+        while (i <= to - m) {
+            int j = m - 1;
+            while (a[i + j] == delimiter[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += skip[a[i + m - 1] & 0xff];
+        }
+        return -1;
+    }
+
+    // Поиск пустой строки после заголовков части
+    private static int indexOfHeadersEnd(byte[] a, int from, int to) {
+        for (int i = from; i <= to - 4; ++i) {
+            if (a[i] == '\r' && a[i + 1] == '\n' && a[i + 2] == '\r' && a[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Разбор заголовков части и подготовка хранилища
+    private void startPart(String block) throws IOException, Connection.RequestException {
+        Map<String, String> headers = new HashMap<>();
+        for (String line : block.split("\r\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int idx = line.indexOf(':');
+            if (idx == -1) {
+                // 400 Bad request
+                throw new Connection.RequestException(400);
+            }
+            headers.put(line.substring(0, idx).trim(), line.substring(idx + 1).trim());
+        }
+
+        String disposition = headers.get("Content-Disposition");
+        if (disposition == null) {
+            // 400 Bad request
+            throw new Connection.RequestException(400);
+        }
+        Map<String, String> params = parseParameters(disposition);
+        String name = params.get("name");
+        if (name == null) {
+            // 400 Bad request
+            throw new Connection.RequestException(400);
+        }
+
+        // Заголовки каждой части остаются в памяти до конца запроса
+        inMemory += block.length();
+        if (parts.size() >= MAX_PARTS || inMemory > memoryLimit) {
+            // 413 Payload Too Large
+            throw new Connection.RequestException(413);
+        }
+        part = new Part(name, params.get("filename"), headers);
+        size = 0;
+        if (part.getFileName() != null) {
+            // Файлы сразу пишутся на диск
+            openFile();
+        } else {
+            memory = new ByteArrayOutputStream();
+        }
+    }
+
+    private void write(byte[] a, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        if (file == null && (memory.size() + len > memoryThreshold
+                || inMemory + memory.size() + len > memoryLimit / 2)) {
+            // Поле слишком велико для памяти или память запроса исчерпана
+            openFile();
+            ByteBuffer buffer = ByteBuffer.wrap(memory.toByteArray());
+            while (buffer.hasRemaining()) {
+                file.write(buffer);
+            }
+            memory = null;
+        }
+        if (file != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(a, off, len);
+            while (buffer.hasRemaining()) {
+                file.write(buffer);
+            }
+        } else {
+            memory.write(a, off, len);
+        }
+        size += len;
+    }
+
+    private void endPart() {
+        if (file != null) {
+            closeFile();
+        } else {
+            part.setData(memory.toByteArray());
+            inMemory += size;
+            memory = null;
+        }
+        part.setSize(size);
+        parts.add(part);
+        part = null;
+    }
+
+    private void openFile() throws IOException {
+        Path path = Files.createTempFile("upload-", ".part");
+        part.setFile(path);
+        file = FileChannel.open(path, StandardOpenOption.WRITE);
+    }
+
+    private void closeFile() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Разбор параметров заголовка вида
+     * {@code form-data; name="field"; filename="a.txt"}.
+     * Имена параметров приводятся к нижнему регистру.
+     *
+     * @param value значение заголовка
+     * @return
+     */
+    static Map<String, String> parseParameters(String value) {
+        Map<String, String> params = new HashMap<>();
+        int i = value.indexOf(';');
+        while (i != -1 && i < value.length()) {
+            int eq = value.indexOf('=', i);
+            if (eq == -1) {
+                break;
+            }
+            String key = value.substring(i + 1, eq).trim().toLowerCase(Locale.ROOT);
+            StringBuilder sb = new StringBuilder();
+            int j = eq + 1;
+            while (j < value.length() && value.charAt(j) == ' ') {
+                j++;
+            }
+            if (j < value.length() && value.charAt(j) == '"') {
+                j++;
+                while (j < value.length() && value.charAt(j) != '"') {
+                    if (value.charAt(j) == '\\' && j + 1 < value.length()) {
+                        j++;
+                    }
+                    sb.append(value.charAt(j++));
+                }
+                i = value.indexOf(';', j);
+            } else {
+                int end = value.indexOf(';', j);
+                sb.append(value, j, end == -1 ? value.length() : end);
+                i = end;
+            }
+            params.put(key, sb.toString().trim());
+        }
+        return params;
+    }
+
+    private enum State {
+        PREAMBLE,
+        BOUNDARY,
+        HEADERS,
+        BODY,
+        DONE
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Часть тела multipart/form-data.
+ * Небольшие поля хранятся в памяти, файлы и крупные поля -
+ * во временных файлах, которые удаляются после закрытия соединения.
+ */
+public class Part {
+    private final String name;
+
+    private final String fileName;
+
+    private final Map<String, String> headers;
+
+    // Содержимое части, если она хранится в памяти
+    private byte[] data;
+
+    // Временный файл, если часть сброшена на диск
+    private Path file;
+
+    private long size;
+
+    /**
+     * Конструктор
+     *
+     * @param name     имя поля из Content-Disposition
+     * @param fileName имя файла или null для обычного поля
+     * @param headers  заголовки части
+     */
+    Part(String name, String fileName, Map<String, String> headers) {
+        this.name = name;
+        this.fileName = fileName;
+        this.headers = headers;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getContentType() {
+        return headers.getOrDefault("Content-Type", "text/plain");
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Возвращает содержимое части, хранящейся в памяти.
+     *
+     * @return
+     * @throws IllegalStateException если часть сброшена на диск
+     */
+    public byte[] getBytes() {
+        if (file != null) {
+            throw new IllegalStateException("Part '" + name + "' is stored in " + file);
+        }
+        return data;
+    }
+
+    /**
+     * Временный файл с содержимым части или null, если часть в памяти.
+     *
+     * @return
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Поток для чтения содержимого независимо от места хранения.
+     *
+     * @return
+     * @throws IOException
+     */
+    public InputStream openStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+    void setData(byte[] data) {
+        this.data = data;
+    }
+
+    void setFile(Path file) {
+        this.file = file;
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Удаляет временный файл, если он есть.
+     */
+    void delete() {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Подбор размера буфера чтения по наблюдаемому размеру заголовков.
+ * Это класс для внутреннего использования, вызывается только из основного цикла сервера.
+ * Размер - ближайшая степень двойки не меньше полуторного среднего
+ * (экспоненциальное скользящее) размера заголовков в заданных границах.
+ */
+class ReadBufferSizer {
+    // Вес нового наблюдения в скользящем среднем
+    private static final double ALPHA = 1.0 / 16;
+
+    private final int min;
+
+    private final int max;
+
+    private final int initial;
+
+    private final boolean adaptive;
+
+    // Средний размер заголовков
+    private double average;
+
+    /**
+     * Конструктор
+     *
+     * @param initial  начальный размер буфера
+     * @param min      минимальный размер буфера
+     * @param max      максимальный размер буфера
+     * @param adaptive подстраивать ли размер
+     */
+    ReadBufferSizer(int initial, int min, int max, boolean adaptive) {
+        this.initial = initial;
+        this.min = min;
+        this.max = max;
+        this.adaptive = adaptive;
+        this.average = initial / 1.5;
+    }
+
+    static ReadBufferSizer of(ServerConfig config) {
+        return new ReadBufferSizer(config.getReadBufferSize(), config.getMinReadBufferSize(),
+                config.getMaxReadBufferSize(), config.isAdaptiveReadBuffer());
+    }
+
+    int getMax() {
+        return max;
+    }
+
+    /**
+     * Размер буфера для нового запроса.
+     *
+     * @return
+     */
+    int size() {
+        if (!adaptive) {
+            return initial;
+        }
+        int target = (int) Math.ceil(average * 1.5);
+        int size = target <= 1 ? 1 : Integer.highestOneBit(target - 1) << 1;
+        return Math.max(min, Math.min(max, size));
+    }
+
+    /**
+     * Следующий размер буфера, если заголовки в текущий не поместились.
+     *
+     * @param current
+     * @return размер или -1, если достигнут максимум
+     */
+    int grow(int current) {
+        if (current >= max) {
+            return -1;
+        }
+        return Math.min(max, current * 2);
+    }
+
+    /**
+     * Учитывает размер заголовков очередного запроса.
+     *
+     * @param headerBytes
+     */
+    void observe(int headerBytes) {
+        average += (headerBytes - average) * ALPHA;
+    }
+}
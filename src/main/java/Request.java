@@ -1,4 +1,7 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -16,6 +19,12 @@ public class Request {
 
     private byte[] body = new byte[0];
 
+    // Тело, отображенное во временный файл
+    private ByteBuffer bodyBuffer;
+
+    // Части тела multipart/form-data
+    private List<Part> parts = new ArrayList<>();
+
     public String getMethod() {
         return method;
     }
@@ -44,12 +53,64 @@ public class Request {
         return query;
     }
 
+    /**
+     * Тело запроса. Если тело было отображено во временный файл,
+     * при первом вызове оно копируется в кучу; для больших тел
+     * лучше использовать getBodyBuffer.
+     *
+     * @return
+     */
     public byte[] getBody() {
+        if (body == null) {
+            body = new byte[bodyBuffer.remaining()];
+            bodyBuffer.duplicate().get(body);
+        }
         return body;
     }
 
     public void setBody(byte[] body) {
         this.body = body;
+        this.bodyBuffer = null;
+    }
+
+    /**
+     * Тело запроса без копирования, только для чтения.
+     *
+     * @return
+     */
+    public ByteBuffer getBodyBuffer() {
+        if (bodyBuffer != null) {
+            return bodyBuffer.asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+
+    public void setBodyBuffer(ByteBuffer bodyBuffer) {
+        this.bodyBuffer = bodyBuffer;
+        this.body = null;
+    }
+
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    public void setParts(List<Part> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * Возвращает часть multipart/form-data по имени поля, иначе null.
+     *
+     * @param name
+     * @return
+     */
+    public Part getPart(String name) {
+        for (Part part : parts) {
+            if (part.getName().equals(name)) {
+                return part;
+            }
+        }
+        return null;
     }
 
     public void addHeader(String key, String value) {
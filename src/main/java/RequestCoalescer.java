@@ -0,0 +1,126 @@
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Учет выполняющихся обработчиков для объединения одинаковых запросов.
+ * Это класс для внутреннего использования, вызывается только из основного цикла сервера.
+ */
+class RequestCoalescer {
+    // Выполняющиеся обработчики по ключу запроса
+    private final Map<String, List<Waiter>> flights = new HashMap<>();
+
+    /**
+     * Ключ запроса: метод, путь, параметры и значения заголовков из настроек.
+     *
+     * @param request
+     * @param coalescing
+     * @return
+     */
+    static String key(Request request, Coalescing coalescing) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(request.getMethod()).append(' ').append(request.getPath());
+        // Путь обрезан по первому '?', а параметры разделены по '&', поэтому
+        // '?' отделяет путь однозначно. Порядок параметров не важен.
+        char separator = '?';
+        for (Map.Entry<String, String> param : new TreeMap<>(request.getQuery()).entrySet()) {
+            sb.append(separator).append(param.getKey()).append('=').append(param.getValue());
+            separator = '&';
+        }
+        for (String name : coalescing.getVaryHeaders()) {
+            sb.append('\n').append(name).append(':');
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                if (header.getKey().equalsIgnoreCase(name)) {
+                    sb.append(header.getValue());
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Присоединяет соединение к выполняющемуся обработчику или
+     * регистрирует новый, если такого нет.
+     *
+     * @param key      ключ запроса
+     * @param waiter   ключ селектора соединения
+     * @param deadline момент (System.nanoTime), после которого ожидание прекращается
+     * @return true, если обработчик уже выполняется и запускать его не нужно
+     */
+    boolean join(String key, SelectionKey waiter, long deadline) {
+        List<Waiter> waiters = flights.get(key);
+        boolean inFlight = waiters != null;
+        if (!inFlight) {
+            waiters = new ArrayList<>();
+            flights.put(key, waiters);
+        }
+        waiters.add(new Waiter(waiter, deadline));
+        return inFlight;
+    }
+
+    /**
+     * Завершает обработку и возвращает ожидающие соединения.
+     *
+     * @param key ключ запроса
+     * @return
+     */
+    List<SelectionKey> complete(String key) {
+        List<SelectionKey> keys = new ArrayList<>();
+        List<Waiter> waiters = flights.remove(key);
+        if (waiters != null) {
+            for (Waiter waiter : waiters) {
+                keys.add(waiter.key());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Удаляет соединения, время ожидания которых истекло.
+     * Сам обработчик продолжает выполняться для остальных.
+     *
+     * @param now текущее время (System.nanoTime)
+     * @return
+     */
+    List<SelectionKey> expire(long now) {
+        List<SelectionKey> expired = new ArrayList<>();
+        for (List<Waiter> waiters : flights.values()) {
+            Iterator<Waiter> iterator = waiters.iterator();
+            while (iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (waiter.deadline() - now <= 0) {
+                    iterator.remove();
+                    expired.add(waiter.key());
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Через сколько миллисекунд истечет ближайшее ожидание, 0 если ожидающих нет.
+     *
+     * @param now текущее время (System.nanoTime)
+     * @return
+     */
+    long nextTimeout(long now) {
+        long min = Long.MAX_VALUE;
+        for (List<Waiter> waiters : flights.values()) {
+            for (Waiter waiter : waiters) {
+                min = Math.min(min, waiter.deadline() - now);
+            }
+        }
+        if (min == Long.MAX_VALUE) {
+            return 0;
+        }
+        // select(0) ждет бесконечно, поэтому не меньше 1 мс
+        return Math.max(1, (min + 999_999) / 1_000_000);
+    }
+
+    private record Waiter(SelectionKey key, long deadline) {
+    }
+}
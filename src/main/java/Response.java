@@ -1,84 +1,96 @@
 import java.nio.charset.StandardCharsets;
-import java.util.AbstractMap.SimpleEntry;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.stream.Stream;
-
-import static java.util.stream.Collectors.toMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Ответ сервера, генерируемый обработчиком.
  */
 public class Response {
-    // Текст для всех http-кодов
-    public static final Map<Integer, String> STATUS_CODES =
-            Stream.<SimpleEntry<Integer, String>>of(
-                            new SimpleEntry<>(100, "Continue"),
-                            new SimpleEntry<>(101, "Switching Protocols"),
-                            new SimpleEntry<>(102, "Processing"),
-                            new SimpleEntry<>(103, "Early Hints"),
-                            new SimpleEntry<>(200, "OK"),
-                            new SimpleEntry<>(201, "Created"),
-                            new SimpleEntry<>(202, "Accepted"),
-                            new SimpleEntry<>(203, "Non-Authoritative Information"),
-                            new SimpleEntry<>(204, "No Content"),
-                            new SimpleEntry<>(205, "Reset Content"),
-                            new SimpleEntry<>(206, "Partial Content"),
-                            new SimpleEntry<>(207, "Multi-Status"),
-                            new SimpleEntry<>(208, "Already Reported"),
-                            new SimpleEntry<>(226, "IM Used"),
-                            new SimpleEntry<>(300, "Multiple Choices"),
-                            new SimpleEntry<>(301, "Moved Permanently"),
-                            new SimpleEntry<>(302, "Found"),
-                            new SimpleEntry<>(303, "See Other"),
-                            new SimpleEntry<>(304, "Not Modified"),
-                            new SimpleEntry<>(305, "Use Proxy"),
-                            new SimpleEntry<>(306, "(Unused)"),
-                            new SimpleEntry<>(307, "Temporary Redirect"),
-                            new SimpleEntry<>(308, "Permanent Redirect"),
-                            new SimpleEntry<>(400, "Bad Request"),
-                            new SimpleEntry<>(401, "Unauthorized"),
-                            new SimpleEntry<>(402, "Payment Required"),
-                            new SimpleEntry<>(403, "Forbidden"),
-                            new SimpleEntry<>(404, "Not Found"),
-                            new SimpleEntry<>(405, "Method Not Allowed"),
-                            new SimpleEntry<>(406, "Not Acceptable"),
-                            new SimpleEntry<>(407, "Proxy Authentication Required"),
-                            new SimpleEntry<>(408, "Request Timeout"),
-                            new SimpleEntry<>(409, "Conflict"),
-                            new SimpleEntry<>(410, "Gone"),
-                            new SimpleEntry<>(411, "Length Required"),
-                            new SimpleEntry<>(412, "Precondition Failed"),
-                            new SimpleEntry<>(413, "Payload Too Large"),
-                            new SimpleEntry<>(414, "URI Too Long"),
-                            new SimpleEntry<>(415, "Unsupported Media Type"),
-                            new SimpleEntry<>(416, "Range Not Satisfiable"),
-                            new SimpleEntry<>(417, "Expectation Failed"),
-                            new SimpleEntry<>(421, "Misdirected Request"),
-                            new SimpleEntry<>(422, "Unprocessable Entity"),
-                            new SimpleEntry<>(423, "Locked"),
-                            new SimpleEntry<>(424, "Failed Dependency"),
-                            new SimpleEntry<>(425, "Too Early"),
-                            new SimpleEntry<>(426, "Upgrade Required"),
-                            new SimpleEntry<>(427, "Unassigned"),
-                            new SimpleEntry<>(428, "Precondition Required"),
-                            new SimpleEntry<>(429, "Too Many Requests"),
-                            new SimpleEntry<>(430, "Unassigned"),
-                            new SimpleEntry<>(431, "Request Header Fields Too Large"),
-                            new SimpleEntry<>(451, "Unavailable For Legal Reasons"),
-                            new SimpleEntry<>(500, "Internal Server Error"),
-                            new SimpleEntry<>(501, "Not Implemented"),
-                            new SimpleEntry<>(502, "Bad Gateway"),
-                            new SimpleEntry<>(503, "Service Unavailable"),
-                            new SimpleEntry<>(504, "Gateway Timeout"),
-                            new SimpleEntry<>(505, "HTTP Version Not Supported"),
-                            new SimpleEntry<>(506, "Variant Also Negotiates"),
-                            new SimpleEntry<>(507, "Insufficient Storage"),
-                            new SimpleEntry<>(508, "Loop Detected"),
-                            new SimpleEntry<>(509, "Unassigned"),
-                            new SimpleEntry<>(510, "Not Extended"),
-                            new SimpleEntry<>(511, "Network Authentication Required"))
-                    .collect(toMap(SimpleEntry::getKey, SimpleEntry::getValue));
+    // Текст http-кодов, индекс - код; null для неизвестных кодов
+    private static final String[] REASON_PHRASES = new String[600];
+
+    static {
+        REASON_PHRASES[100] = "Continue";
+        REASON_PHRASES[101] = "Switching Protocols";
+        REASON_PHRASES[102] = "Processing";
+        REASON_PHRASES[103] = "Early Hints";
+        REASON_PHRASES[200] = "OK";
+        REASON_PHRASES[201] = "Created";
+        REASON_PHRASES[202] = "Accepted";
+        REASON_PHRASES[203] = "Non-Authoritative Information";
+        REASON_PHRASES[204] = "No Content";
+        REASON_PHRASES[205] = "Reset Content";
+        REASON_PHRASES[206] = "Partial Content";
+        REASON_PHRASES[207] = "Multi-Status";
+        REASON_PHRASES[208] = "Already Reported";
+        REASON_PHRASES[226] = "IM Used";
+        REASON_PHRASES[300] = "Multiple Choices";
+        REASON_PHRASES[301] = "Moved Permanently";
+        REASON_PHRASES[302] = "Found";
+        REASON_PHRASES[303] = "See Other";
+        REASON_PHRASES[304] = "Not Modified";
+        REASON_PHRASES[305] = "Use Proxy";
+        REASON_PHRASES[306] = "(Unused)";
+        REASON_PHRASES[307] = "Temporary Redirect";
+        REASON_PHRASES[308] = "Permanent Redirect";
+        REASON_PHRASES[400] = "Bad Request";
+        REASON_PHRASES[401] = "Unauthorized";
+        REASON_PHRASES[402] = "Payment Required";
+        REASON_PHRASES[403] = "Forbidden";
+        REASON_PHRASES[404] = "Not Found";
+        REASON_PHRASES[405] = "Method Not Allowed";
+        REASON_PHRASES[406] = "Not Acceptable";
+        REASON_PHRASES[407] = "Proxy Authentication Required";
+        REASON_PHRASES[408] = "Request Timeout";
+        REASON_PHRASES[409] = "Conflict";
+        REASON_PHRASES[410] = "Gone";
+        REASON_PHRASES[411] = "Length Required";
+        REASON_PHRASES[412] = "Precondition Failed";
+        REASON_PHRASES[413] = "Payload Too Large";
+        REASON_PHRASES[414] = "URI Too Long";
+        REASON_PHRASES[415] = "Unsupported Media Type";
+        REASON_PHRASES[416] = "Range Not Satisfiable";
+        REASON_PHRASES[417] = "Expectation Failed";
+        REASON_PHRASES[421] = "Misdirected Request";
+        REASON_PHRASES[422] = "Unprocessable Entity";
+        REASON_PHRASES[423] = "Locked";
+        REASON_PHRASES[424] = "Failed Dependency";
+        REASON_PHRASES[425] = "Too Early";
+        REASON_PHRASES[426] = "Upgrade Required";
+        REASON_PHRASES[427] = "Unassigned";
+        REASON_PHRASES[428] = "Precondition Required";
+        REASON_PHRASES[429] = "Too Many Requests";
+        REASON_PHRASES[430] = "Unassigned";
+        REASON_PHRASES[431] = "Request Header Fields Too Large";
+        REASON_PHRASES[451] = "Unavailable For Legal Reasons";
+        REASON_PHRASES[500] = "Internal Server Error";
+        REASON_PHRASES[501] = "Not Implemented";
+        REASON_PHRASES[502] = "Bad Gateway";
+        REASON_PHRASES[503] = "Service Unavailable";
+        REASON_PHRASES[504] = "Gateway Timeout";
+        REASON_PHRASES[505] = "HTTP Version Not Supported";
+        REASON_PHRASES[506] = "Variant Also Negotiates";
+        REASON_PHRASES[507] = "Insufficient Storage";
+        REASON_PHRASES[508] = "Loop Detected";
+        REASON_PHRASES[509] = "Unassigned";
+        REASON_PHRASES[510] = "Not Extended";
+        REASON_PHRASES[511] = "Network Authentication Required";
+    }
+
+    // Число известных http-кодов
+    private static final int KNOWN_CODES = count();
+
+    /**
+     * Текст для всех http-кодов.
+     * Представление только для чтения над той же таблицей, что и
+     * {@link #reasonPhrase(int)}, записи при загрузке класса не создаются.
+     */
+    public static final Map<Integer, String> STATUS_CODES = new StatusCodes();
 
     static final String CR_LF = "\r\n";
     static final String PROTO = "HTTP/1.1";
@@ -101,8 +113,7 @@ public class Response {
      */
     public Response(int statusCode) {
         this.statusCode = statusCode;
-        status = String.format("%s %d %s",
-                PROTO, statusCode, STATUS_CODES.get(statusCode));
+        status = PROTO + ' ' + statusCode + ' ' + reasonPhrase(statusCode);
     }
 
     public int getStatusCode() {
@@ -137,14 +148,17 @@ public class Response {
         StringBuilder sb = new StringBuilder();
         sb.append(status).append(CR_LF);
         if (!headers.containsKey("Content-Length")) {
-            headers.put("Content-Length", String.format("%d", body.length));
+            headers.put("Content-Length", Integer.toString(body.length));
         }
         if (!headers.containsKey("Content-Type")) {
             headers.put("Content-Type", "text/html");
         }
+        // Сервер закрывает соединение после каждого ответа
+        if (!headers.containsKey("Connection")) {
+            headers.put("Connection", "close");
+        }
         for (Map.Entry<String, String> kv : headers.entrySet()) {
-            String header = String.format("%s: %s", kv.getKey(), kv.getValue());
-            sb.append(header).append(CR_LF);
+            sb.append(kv.getKey()).append(": ").append(kv.getValue()).append(CR_LF);
         }
         sb.append(CR_LF);
 
@@ -157,4 +171,95 @@ public class Response {
 
         return bytes;
     }
+
+    /**
+     * Сериализует ответ в неизменяемый FrozenResponse, который можно
+     * возвращать из обработчика многократно без повторной сериализации.
+     *
+     * @return
+     */
+    public FrozenResponse freeze() {
+        return new FrozenResponse(this);
+    }
+
+    /**
+     * Текст http-кода.
+     *
+     * @param statusCode
+     * @return текст или null для неизвестного кода
+     */
+    public static String reasonPhrase(int statusCode) {
+        if (statusCode < 0 || statusCode >= REASON_PHRASES.length) {
+            return null;
+        }
+        return REASON_PHRASES[statusCode];
+    }
+
+    private static int count() {
+        int count = 0;
+        for (String phrase : REASON_PHRASES) {
+            if (phrase != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Map http-кодов над REASON_PHRASES без хранения записей
+    private static final class StatusCodes extends AbstractMap<Integer, String> {
+        @Override
+        public String get(Object key) {
+            return key instanceof Integer code ? reasonPhrase(code) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return KNOWN_CODES;
+        }
+
+        @Override
+        public Set<Entry<Integer, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Integer, String>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < REASON_PHRASES.length;
+                        }
+
+                        @Override
+                        public Entry<Integer, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int code = next;
+                            next = advance(code + 1);
+                            return new SimpleImmutableEntry<>(code, REASON_PHRASES[code]);
+                        }
+
+                        // Следующий известный код, начиная с from
+                        private int advance(int from) {
+                            while (from < REASON_PHRASES.length && REASON_PHRASES[from] == null) {
+                                from++;
+                            }
+                            return from;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return KNOWN_CODES;
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,297 @@
+import java.time.Duration;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Настройки сервера: параметры сокетов, размеры буферов, TLS и лимит памяти.
+ * Создается через {@link #builder()}, неизменяема.
+ * <pre>{@code
+ * ServerConfig config = ServerConfig.builder()
+ *         .backlog(1024)
+ *         .tcpNoDelay(true)
+ *         .reusePort(true)
+ *         .build();
+ * HTTPServer server = new HTTPServer("0.0.0.0", 8080, config);
+ * }</pre>
+ */
+public class ServerConfig {
+    // Очередь входящих соединений, 0 - значение по умолчанию JDK
+    private final int backlog;
+
+    private final boolean tcpNoDelay;
+
+    // SO_RCVBUF и SO_SNDBUF, 0 - значение по умолчанию ОС
+    private final int receiveBufferSize;
+
+    private final int sendBufferSize;
+
+    private final boolean reuseAddress;
+
+    private final boolean reusePort;
+
+    // Начальный, минимальный и максимальный размер буфера чтения
+    private final int readBufferSize;
+
+    private final int minReadBufferSize;
+
+    private final int maxReadBufferSize;
+
+    // Подстраивать размер буфера чтения под размер заголовков
+    private final boolean adaptiveReadBuffer;
+
+    private final SSLContext sslContext;
+
+    private final MemoryBudget memoryBudget;
+
+    // Сколько соединение ждет памяти под тело запроса до ответа 503
+    private final Duration memoryWait;
+
+    // Подготовка основного пути запроса до приема соединений
+    private final boolean preTouch;
+
+    private ServerConfig(Builder builder) {
+        backlog = builder.backlog;
+        tcpNoDelay = builder.tcpNoDelay;
+        receiveBufferSize = builder.receiveBufferSize;
+        sendBufferSize = builder.sendBufferSize;
+        reuseAddress = builder.reuseAddress;
+        reusePort = builder.reusePort;
+        readBufferSize = builder.readBufferSize;
+        minReadBufferSize = builder.minReadBufferSize;
+        maxReadBufferSize = builder.maxReadBufferSize;
+        adaptiveReadBuffer = builder.adaptiveReadBuffer;
+        sslContext = builder.sslContext;
+        memoryBudget = builder.memoryBudget != null ? builder.memoryBudget : new MemoryBudget(
+                Runtime.getRuntime().maxMemory() / 4, HTTPServer.DEFAULT_SPILL_THRESHOLD);
+        memoryWait = builder.memoryWait;
+        preTouch = builder.preTouch;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public boolean isReuseAddress() {
+        return reuseAddress;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public int getMinReadBufferSize() {
+        return minReadBufferSize;
+    }
+
+    public int getMaxReadBufferSize() {
+        return maxReadBufferSize;
+    }
+
+    public boolean isAdaptiveReadBuffer() {
+        return adaptiveReadBuffer;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public Duration getMemoryWait() {
+        return memoryWait;
+    }
+
+    public boolean isPreTouch() {
+        return preTouch;
+    }
+
+    /**
+     * Построитель настроек. Значения по умолчанию: TCP_NODELAY включен,
+     * SO_REUSEADDR включен, буферы сокетов и очередь соединений - по умолчанию ОС,
+     * буфер чтения от 1 до 64 КБ, начиная с 8 КБ, с подстройкой под запросы.
+     */
+    public static class Builder {
+        private int backlog = 0;
+
+        private boolean tcpNoDelay = true;
+
+        private int receiveBufferSize = 0;
+
+        private int sendBufferSize = 0;
+
+        private boolean reuseAddress = true;
+
+        private boolean reusePort = false;
+
+        private int readBufferSize = Connection.READ_BUFFER_SIZE;
+
+        private int minReadBufferSize = 1024;
+
+        private int maxReadBufferSize = 64 * 1024;
+
+        private boolean adaptiveReadBuffer = true;
+
+        private SSLContext sslContext;
+
+        private MemoryBudget memoryBudget;
+
+        private Duration memoryWait = Duration.ofSeconds(10);
+
+        private boolean preTouch = false;
+
+        private Builder() {
+        }
+
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder receiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        public Builder sendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        public Builder reuseAddress(boolean reuseAddress) {
+            this.reuseAddress = reuseAddress;
+            return this;
+        }
+
+        /**
+         * SO_REUSEPORT: несколько серверов на одном порту, ядро распределяет соединения.
+         * Игнорируется с предупреждением, если платформа его не поддерживает.
+         *
+         * @param reusePort
+         * @return
+         */
+        public Builder reusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        /**
+         * Начальный размер буфера чтения.
+         *
+         * @param readBufferSize
+         * @return
+         */
+        public Builder readBufferSize(int readBufferSize) {
+            this.readBufferSize = readBufferSize;
+            return this;
+        }
+
+        /**
+         * Границы размера буфера чтения. Заголовки, не помещающиеся
+         * в максимальный буфер, отклоняются с кодом 431.
+         *
+         * @param min
+         * @param max
+         * @return
+         */
+        public Builder readBufferLimits(int min, int max) {
+            this.minReadBufferSize = min;
+            this.maxReadBufferSize = max;
+            return this;
+        }
+
+        /**
+         * Подстраивать начальный размер буфера чтения под наблюдаемый
+         * размер заголовков запросов.
+         *
+         * @param adaptiveReadBuffer
+         * @return
+         */
+        public Builder adaptiveReadBuffer(boolean adaptiveReadBuffer) {
+            this.adaptiveReadBuffer = adaptiveReadBuffer;
+            return this;
+        }
+
+        /**
+         * Контекст TLS для работы по HTTPS.
+         *
+         * @param sslContext
+         * @return
+         */
+        public Builder sslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * Лимит памяти, по умолчанию четверть максимального размера кучи.
+         *
+         * @param memoryBudget
+         * @return
+         */
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Сколько соединение может ждать памяти под тело запроса,
+         * после этого клиент получит 503. По умолчанию 10 секунд.
+         *
+         * @param memoryWait
+         * @return
+         */
+        public Builder memoryWait(Duration memoryWait) {
+            this.memoryWait = memoryWait;
+            return this;
+        }
+
+        /**
+         * Режим быстрого старта: до приема соединений загружаются классы
+         * основного пути запроса, сериализуются ответы с ошибками и, для HTTPS,
+         * выполняется рукопожатие в памяти. Первые запросы не платят за
+         * инициализацию, но сервер начинает слушать порт позже.
+         *
+         * @param preTouch
+         * @return
+         */
+        public Builder preTouch(boolean preTouch) {
+            this.preTouch = preTouch;
+            return this;
+        }
+
+        public ServerConfig build() {
+            if (minReadBufferSize <= 0 || minReadBufferSize > maxReadBufferSize
+                    || readBufferSize < minReadBufferSize || readBufferSize > maxReadBufferSize) {
+                throw new IllegalArgumentException("Read buffer size must be within [min, max]");
+            }
+            return new ServerConfig(this);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * События JDK Flight Recorder жизненного цикла запроса.
+ * По умолчанию выключены и почти ничего не стоят; включаются
+ * настройками jfr/httpserver.jfc. Все события
+ * соединения содержат connectionId, события запроса - еще и requestId,
+ * чтобы их можно было связать между собой.
+ * <p>
+ * Пока Flight Recorder не запущен, объекты событий не создаются:
+ * первое создание события загружает инфраструктуру JFR, а это
+ * сотни миллисекунд на старте сервера.
+ */
+final class ServerEvents {
+    private ServerEvents() {
+    }
+
+    /**
+     * Запущен ли Flight Recorder (параметром JVM, через jcmd или API).
+     *
+     * @return
+     */
+    static boolean isActive() {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("httpserver.ConnectionAccept")
+    @Label("Connection Accept")
+    @Category("HTTP Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static class ConnectionAccept extends Event {
+        @Label("Connection Id")
+        long connectionId;
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Secure")
+        boolean secure;
+    }
+
+    @Name("httpserver.ConnectionClose")
+    @Label("Connection Close")
+    @Category("HTTP Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static class ConnectionClose extends Event {
+        @Label("Connection Id")
+        long connectionId;
+
+        @Label("Connection State")
+        String state;
+    }
+
+    @Name("httpserver.HeaderParse")
+    @Label("Header Parse")
+    @Description("From the first byte of the request to the parsed headers")
+    @Category("HTTP Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static class HeaderParse extends Event {
+        @Label("Connection Id")
+        long connectionId;
+
+        @Label("Request Id")
+        long requestId;
+
+        @Label("Method")
+        String method;
+
+        @Label("Path")
+        String path;
+
+        @Label("Header Lines")
+        int headerLines;
+    }
+
+    @Name("httpserver.HandlerInvocation")
+    @Label("Handler Invocation")
+    @Category("HTTP Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static class HandlerInvocation extends Event {
+        @Label("Connection Id")
+        long connectionId;
+
+        @Label("Request Id")
+        long requestId;
+
+        @Label("Route")
+        String route;
+
+        @Label("Status Code")
+        int statusCode;
+
+        @Label("Coalesced")
+        @Description("Handler ran on the worker pool on behalf of coalesced requests")
+        boolean coalesced;
+    }
+
+    @Name("httpserver.ResponseWrite")
+    @Label("Response Write")
+    @Description("From the response being ready to the last byte handed to the socket")
+    @Category("HTTP Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static class ResponseWrite extends Event {
+        @Label("Connection Id")
+        long connectionId;
+
+        @Label("Request Id")
+        long requestId;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Partial Writes")
+        @Description("Write attempts that left bytes for the next OP_WRITE")
+        int partialWrites;
+    }
+
+    @Name("httpserver.SelectorLoop")
+    @Label("Selector Loop Iteration")
+    @Description("Processing of one batch of selected keys; waiting in select() is reported separately")
+    @Category("HTTP Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static class SelectorLoop extends Event {
+        @Label("Selected Keys")
+        int selectedKeys;
+
+        @Label("Pending Tasks")
+        int pendingTasks;
+
+        @Label("Select Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long selectWait;
+    }
+}
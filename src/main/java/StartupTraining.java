@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Сценарий прогрева для архива AppCDS.
+ * Запускает сервер на свободном порту и отправляет ему типичные запросы,
+ * чтобы JVM загрузила классы основного пути запроса; при запуске с
+ * -XX:ArchiveClassesAtExit они сохраняются в архив при выходе.
+ * <p>
+ * Архив создается профилем Maven: {@code mvn -Pappcds package}, после чего
+ * приложение запускается с {@code -XX:SharedArchiveFile=target/httpserver.jsa}.
+ * Путь к jar сервера должен быть первым в classpath приложения.
+ */
+public class StartupTraining {
+    // Сколько раз повторить сценарий
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        HTTPServer server = new HTTPServer("localhost", port, ServerConfig.builder().preTouch(true).build());
+        server.addListener("/hello", "GET", request -> {
+            Response response = new Response(200);
+            response.addHeader("Content-Type", "text/plain");
+            response.setBody("Hello world!".getBytes(StandardCharsets.UTF_8));
+            return response;
+        });
+        server.addListener("/echo", "POST", request -> {
+            Response response = new Response(200);
+            response.setBody(request.getBody());
+            return response;
+        });
+        server.addListener("/upload", "POST", request -> {
+            Response response = new Response(200);
+            response.setBody(request.getPart("field").getBytes());
+            return response;
+        });
+        server.addListener("/report", "GET", request -> new Response(200), new Coalescing(Duration.ofSeconds(1)));
+        Response health = new Response(200);
+        health.setBody("OK".getBytes(StandardCharsets.UTF_8));
+        FrozenResponse frozen = health.freeze();
+        server.addListener("/health", "GET", request -> frozen);
+
+        Thread thread = new Thread(server::start, "server");
+        thread.start();
+
+        String multipart = "--b\r\nContent-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\ncontent\r\n--b--\r\n";
+        String[] requests = {
+                "GET /hello?key=value&flag HTTP/1.1\r\nHost: localhost\r\nAccept: */*\r\n\r\n",
+                "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nhello",
+                "POST /upload HTTP/1.1\r\nHost: localhost\r\nContent-Type: multipart/form-data; boundary=b\r\n"
+                        + "Content-Length: " + multipart.length() + "\r\n\r\n" + multipart,
+                "GET /report HTTP/1.1\r\nHost: localhost\r\n\r\n",
+                "GET /health HTTP/1.1\r\nHost: localhost\r\n\r\n",
+                "GET /missing HTTP/1.1\r\nHost: localhost\r\n\r\n",
+                "GET /hello HTTP/1.0\r\nHost: localhost\r\n\r\n",
+                "BROKEN\r\n\r\n"
+        };
+        try {
+            waitForServer(port);
+            for (int i = 0; i < ROUNDS; ++i) {
+                for (String request : requests) {
+                    send(port, request);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+        thread.join();
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 1000; ++i) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(10);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    // Запрос и чтение ответа до закрытия соединения сервером
+    private static void send(int port, String request) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,440 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Канал TLS поверх неблокирующего SocketChannel.
+ * Это класс для внутреннего использования.
+ * Методы read и write ведут себя как у SocketChannel: возвращают 0,
+ * если продолжить можно только после следующего события селектора.
+ * Рукопожатие выполняется по ходу чтения и записи, а его
+ * длительные задачи (delegated tasks) - в отдельном пуле потоков,
+ * чтобы не блокировать основной цикл сервера.
+ */
+class TlsChannel implements ByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+
+    private final SSLEngine engine;
+
+    private final BufferPool netBuffers;
+
+    private final BufferPool appBuffers;
+
+    private final Executor executor;
+
+    // Вызывается после завершения задач рукопожатия (в потоке пула)
+    private final Runnable onTasksDone;
+
+    // Зашифрованные данные из сокета (режим записи)
+    private ByteBuffer netIn;
+
+    // Зашифрованные данные для сокета (режим записи)
+    private ByteBuffer netOut;
+
+    // Расшифрованные данные (режим записи)
+    private ByteBuffer appIn;
+
+    private volatile boolean tasksRunning = false;
+
+    private boolean eof = false;
+
+    private boolean closed = false;
+
+    /**
+     * Конструктор
+     *
+     * @param channel     канал соединения
+     * @param engine      SSLEngine в режиме сервера
+     * @param netBuffers  пул буферов для зашифрованных данных
+     * @param appBuffers  пул буферов для расшифрованных данных
+     * @param executor    пул потоков для задач рукопожатия
+     * @param onTasksDone обратный вызов по завершении задач
+     */
+    TlsChannel(SocketChannel channel, SSLEngine engine, BufferPool netBuffers, BufferPool appBuffers,
+               Executor executor, Runnable onTasksDone) {
+        this.channel = channel;
+        this.engine = engine;
+        this.netBuffers = netBuffers;
+        this.appBuffers = appBuffers;
+        this.executor = executor;
+        this.onTasksDone = onTasksDone;
+        netIn = netBuffers.acquire();
+        netOut = netBuffers.acquire();
+        appIn = appBuffers.acquire();
+    }
+
+    /**
+     * Рукопожатие в памяти между клиентом и сервером на одном контексте,
+     * чтобы инициализировать криптографию до первого соединения.
+     * Клиент может не доверять сертификату сервера; тогда рукопожатие
+     * завершится ошибкой, но основная работа к этому моменту уже выполнена.
+     *
+     * @param context
+     */
+    static void warmUp(SSLContext context) {
+        SSLEngine client = context.createSSLEngine("localhost", 443);
+        client.setUseClientMode(true);
+        SSLEngine server = context.createSSLEngine();
+        server.setUseClientMode(false);
+        int packetSize = server.getSession().getPacketBufferSize();
+        ByteBuffer toServer = ByteBuffer.allocate(4 * packetSize);
+        ByteBuffer toClient = ByteBuffer.allocate(4 * packetSize);
+        ByteBuffer app = ByteBuffer.allocate(server.getSession().getApplicationBufferSize());
+        try {
+            client.beginHandshake();
+            server.beginHandshake();
+            for (int i = 0; i < 1000 && (handshaking(client) || handshaking(server)); ++i) {
+                step(client, toClient, toServer, app);
+                step(server, toServer, toClient, app);
+            }
+        } catch (SSLException ignored) {
+            // Например, сертификат сервера не входит в доверенные
+        }
+    }
+
+    private static boolean handshaking(SSLEngine engine) {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                && status != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    // Один шаг рукопожатия в памяти
+    private static void step(SSLEngine engine, ByteBuffer in, ByteBuffer out, ByteBuffer app) throws SSLException {
+        switch (engine.getHandshakeStatus()) {
+            case NEED_TASK -> {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+            }
+            case NEED_WRAP -> engine.wrap(EMPTY, out);
+            case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                in.flip();
+                try {
+                    engine.unwrap(in, app);
+                } finally {
+                    in.compact();
+                    app.clear();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    SSLEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Чтение расшифрованных данных.
+     *
+     * @param dst
+     * @return число прочитанных байт, 0 или -1 в конце потока
+     * @throws IOException
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int n = drain(dst);
+        if (n > 0) {
+            return n;
+        }
+        while (true) {
+            if (!handshake()) {
+                return eof ? -1 : 0;
+            }
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case OK -> {
+                    if (appIn.position() > 0) {
+                        return drain(dst);
+                    }
+                }
+                case BUFFER_UNDERFLOW -> {
+                    if (!fill()) {
+                        return eof ? -1 : 0;
+                    }
+                }
+                case BUFFER_OVERFLOW -> appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                case CLOSED -> {
+                    eof = true;
+                    return -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Шифрование и запись данных.
+     *
+     * @param src
+     * @return число принятых байт, 0 если рукопожатие еще не завершено
+     * @throws IOException
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (closed) {
+            throw new IOException("Channel is closed");
+        }
+        if (!handshake()) {
+            if (eof) {
+                throw new IOException("End of input stream. Connection is closed by the client");
+            }
+            return 0;
+        }
+        int consumed = 0;
+        while (src.hasRemaining() && flush()) {
+            SSLEngineResult result = engine.wrap(src, netOut);
+            consumed += result.bytesConsumed();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new IOException("SSLEngine is closed");
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && netOut.position() == 0) {
+                netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+            }
+        }
+        flush();
+        return consumed;
+    }
+
+    /**
+     * Запись накопленных зашифрованных данных в сокет.
+     *
+     * @return true, если все данные записаны
+     * @throws IOException
+     */
+    boolean flush() throws IOException {
+        if (netOut.position() == 0) {
+            return true;
+        }
+        netOut.flip();
+        try {
+            channel.write(netOut);
+        } finally {
+            netOut.compact();
+        }
+        return netOut.position() == 0;
+    }
+
+    /**
+     * Какие события селектора нужны каналу, если соединению нужны ops.
+     *
+     * @param ops события, нужные соединению
+     * @return
+     */
+    int interestOps(int ops) {
+        if (tasksRunning) {
+            // Ждем завершения задач рукопожатия
+            return 0;
+        }
+        if (netOut.position() > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        if (status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+            ops |= SelectionKey.OP_READ;
+        }
+        return ops;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * Отправляет close_notify и закрывает запись в канал, оставляя его открытым для чтения.
+     *
+     * @throws IOException
+     */
+    void shutdownOutput() throws IOException {
+        if (!tasksRunning) {
+            engine.closeOutbound();
+            engine.wrap(EMPTY, netOut);
+            flush();
+        }
+        channel.shutdownOutput();
+    }
+
+    /**
+     * Отправляет close_notify, закрывает канал и возвращает буферы в пул.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!tasksRunning && channel.isOpen()) {
+                engine.closeOutbound();
+                engine.wrap(EMPTY, netOut);
+                flush();
+            }
+        } catch (IOException ignored) {
+            // Клиент мог уже закрыть соединение
+        } finally {
+            channel.close();
+            if (!tasksRunning) {
+                netBuffers.release(netIn);
+                netBuffers.release(netOut);
+                appBuffers.release(appIn);
+            }
+        }
+    }
+
+    /**
+     * Продвигает рукопожатие, насколько это возможно без ожидания.
+     *
+     * @return true, если рукопожатие не выполняется
+     * @throws IOException
+     */
+    private boolean handshake() throws IOException {
+        while (true) {
+            if (tasksRunning) {
+                return false;
+            }
+            switch (engine.getHandshakeStatus()) {
+                case NOT_HANDSHAKING, FINISHED -> {
+                    flush();
+                    return true;
+                }
+                case NEED_TASK -> {
+                    flush();
+                    runTasks();
+                    if (tasksRunning) {
+                        return false;
+                    }
+                }
+                case NEED_WRAP -> {
+                    // Записи рукопожатия накапливаются в netOut и
+                    // отправляются одним вызовом при смене состояния
+                    SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        if (netOut.position() == 0) {
+                            netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                        } else if (!flush()) {
+                            return false;
+                        }
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        flush();
+                        eof = true;
+                        return false;
+                    }
+                }
+                case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                    flush();
+                    netIn.flip();
+                    SSLEngineResult result;
+                    try {
+                        result = engine.unwrap(netIn, appIn);
+                    } finally {
+                        netIn.compact();
+                    }
+                    switch (result.getStatus()) {
+                        case BUFFER_UNDERFLOW -> {
+                            if (!fill()) {
+                                return false;
+                            }
+                        }
+                        case BUFFER_OVERFLOW -> appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                        case CLOSED -> {
+                            eof = true;
+                            return false;
+                        }
+                        default -> {
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Запуск задач рукопожатия в пуле потоков
+    private void runTasks() {
+        if (executor == null) {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+            return;
+        }
+        tasksRunning = true;
+        executor.execute(() -> {
+            try {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+            } finally {
+                tasksRunning = false;
+                onTasksDone.run();
+            }
+        });
+    }
+
+    // Чтение зашифрованных данных из сокета
+    private boolean fill() throws IOException {
+        if (!netIn.hasRemaining()) {
+            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+        }
+        int read = channel.read(netIn);
+        if (read < 0) {
+            eof = true;
+            try {
+                engine.closeInbound();
+            } catch (SSLException ignored) {
+                // Клиент закрыл соединение без close_notify
+            }
+            return false;
+        }
+        return read > 0;
+    }
+
+    // Передача расшифрованных данных
+    private int drain(ByteBuffer dst) {
+        if (appIn.position() == 0) {
+            return 0;
+        }
+        appIn.flip();
+        int n = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + n);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        return n;
+    }
+
+    // Увеличение буфера с сохранением данных
+    private static ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HTTPSServerTest {
+    // Глобальный сервер HTTPS для всех тестов
+    private static HTTPServer server;
+
+    private static SSLContext clientContext;
+
+    private static SSLContext serverContext;
+
+    // Запуск сервера перед тестами (в отдельном потоке)
+    @BeforeAll
+    public static void beforeAll() throws Exception {
+        SelfSignedKeyStore keyStore = SelfSignedKeyStore.generate();
+        clientContext = keyStore.clientContext();
+        serverContext = keyStore.serverContext();
+        server = new HTTPServer("localhost", 8443, serverContext);
+        new Thread(server::start).start();
+        Thread.sleep(500);
+    }
+
+    // Остановка сервера
+    @AfterAll
+    public static void afterAll() {
+        server.stop();
+    }
+
+    // Тестируем GET и POST с телом больше одной записи TLS
+    @Test
+    public void test1() throws Exception {
+        server.addListener("/echo", "POST", request -> {
+            Response response = new Response(200);
+            response.addHeader("Content-Type", "text/plain");
+            response.setBody(request.getBody());
+            return response;
+        });
+        server.addListener("/hello", "GET", request -> {
+            Response response = new Response(200);
+            response.addHeader("Content-Type", "text/plain");
+            response.setBody("Hello world!".getBytes(StandardCharsets.UTF_8));
+            return response;
+        });
+
+        HttpClient client = HttpClient.newBuilder().sslContext(clientContext).build();
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder()
+                .uri(URI.create("https://localhost:8443/hello"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals("Hello world!", response.body());
+
+        String body = "0123456789".repeat(10_000);
+        response = client.send(HttpRequest.newBuilder()
+                .uri(URI.create("https://localhost:8443/echo"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals(body, response.body());
+    }
+
+    // Тестируем возобновление сессии: второе соединение с тем же
+    // клиентским контекстом не выполняет полное рукопожатие
+    @Test
+    public void test2() throws Exception {
+        server.addListener("/session", "GET", request -> new Response(204));
+
+        // В TLS 1.3 идентификатор новый, но возобновленная сессия
+        // сохраняет время создания исходной
+        SSLSession first = request(clientContext, "TLSv1.3");
+        SSLSession second = request(clientContext, "TLSv1.3");
+        assertEquals(first.getCreationTime(), second.getCreationTime());
+
+        // В TLS 1.2 возобновленная сессия сохраняет идентификатор
+        first = request(clientContext, "TLSv1.2");
+        second = request(clientContext, "TLSv1.2");
+        assertArrayEquals(first.getId(), second.getId());
+
+        // Кэш с настройками по умолчанию получил настройки сервера
+        assertEquals(HTTPServer.TLS_SESSION_CACHE_SIZE, serverContext.getServerSessionContext().getSessionCacheSize());
+    }
+
+    // Соединение с запросом GET /session по указанной версии TLS, возвращает сессию
+    private static SSLSession request(SSLContext context, String protocol) throws IOException {
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", 8443)) {
+            socket.setEnabledProtocols(new String[]{protocol});
+            socket.startHandshake();
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /session HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            socket.getInputStream().readAllBytes();
+            return socket.getSession();
+        }
+    }
+}
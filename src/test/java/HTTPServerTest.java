@@ -1,15 +1,27 @@
 import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class HTTPServerTest {
     // Глобальный сервер для всех тестов
@@ -86,6 +98,13 @@ class HTTPServerTest {
         return response;
     };
 
+    // Свободный порт для отдельного сервера
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
     // Запуск сервера перед тестами (в отдельном потоке)
     @BeforeAll
     public static void beforeAll() throws InterruptedException {
@@ -161,4 +180,274 @@ class HTTPServerTest {
         response = clientSendDelete("http://127.0.0.1:8080/test5");
         assertEquals(204, response.statusCode());
     }
-}
\ No newline at end of file
+
+    // Тестируем загрузку multipart/form-data
+    @Test
+    public void test6() throws IOException, InterruptedException {
+        server.addListener("/test6", "POST", request -> {
+            Part field = request.getPart("title");
+            Part file = request.getPart("file");
+            Response response = new Response(200);
+            response.addHeader("Content-Type", "text/plain");
+            response.setBody(String.format("%s:%s:%d:%b",
+                    new String(field.getBytes(), StandardCharsets.UTF_8),
+                    file.getFileName(), file.getSize(), file.isInMemory()).getBytes(StandardCharsets.UTF_8));
+            return response;
+        });
+
+        String boundary = "----test6boundary";
+        String body = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+                + "Hello world!\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + "x".repeat(100_000) + "\r\n"
+                + "--" + boundary + "--\r\n";
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:8080/test6"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals("Hello world!:a.txt:100000:false", response.body());
+    }
+
+    // Тестируем объединение одинаковых запросов
+    @Test
+    public void test7() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        server.addListener("/test7", "GET", request -> {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Response response = new Response(200);
+            response.addHeader("Content-Type", "text/plain");
+            response.setBody(("Hello " + request.getHeaders().get("Authorization")).getBytes(StandardCharsets.UTF_8));
+            return response;
+        }, new Coalescing(Duration.ofSeconds(5), "Authorization"));
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<CompletableFuture<HttpResponse<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://127.0.0.1:8080/test7?a=1&b=2"))
+                    .header("Authorization", i % 2 == 0 ? "alice" : "bob")
+                    .build();
+            futures.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        for (int i = 0; i < futures.size(); ++i) {
+            HttpResponse<String> response = futures.get(i).get();
+            assertEquals(200, response.statusCode());
+            assertEquals(i % 2 == 0 ? "Hello alice" : "Hello bob", response.body());
+        }
+        // Один вызов обработчика на каждое значение Authorization
+        assertEquals(2, calls.get());
+    }
+
+    // Тестируем ограничение времени ожидания объединенного запроса
+    @Test
+    public void test8() throws IOException, InterruptedException {
+        server.addListener("/test8", "GET", request -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Response(200);
+        }, new Coalescing(Duration.ofMillis(100)));
+
+        HttpResponse<String> response = clientSendGet("http://127.0.0.1:8080/test8");
+        assertEquals(503, response.statusCode());
+    }
+
+    // Тестируем неизменяемый ответ, общий для всех запросов
+    @Test
+    public void test9() throws IOException, InterruptedException {
+        Response health = new Response(200);
+        health.addHeader("Content-Type", "text/plain");
+        health.setBody("OK".getBytes(StandardCharsets.UTF_8));
+        FrozenResponse frozen = health.freeze();
+        assertThrows(UnsupportedOperationException.class, () -> frozen.addHeader("X-Test", "1"));
+        assertSame(FrozenResponse.of(404), FrozenResponse.of(404));
+        // Общие ответы в direct-буфере, ответы объединенных запросов в куче
+        assertTrue(frozen.buffer().isDirect());
+        assertFalse(new FrozenResponse(health, false).buffer().isDirect());
+
+        server.addListener("/test9", "GET", request -> frozen);
+        for (int i = 0; i < 3; ++i) {
+            HttpResponse<String> response = clientSendGet("http://127.0.0.1:8080/test9");
+            assertEquals(200, response.statusCode());
+            assertEquals("OK", response.body());
+            assertEquals("text/plain", response.headers().map().get("Content-Type").get(0));
+        }
+    }
+
+    // Тестируем увеличение буфера чтения под длинные заголовки
+    @Test
+    public void test10() throws IOException, InterruptedException {
+        server.addListener("/test10", "GET", request -> {
+            Response response = new Response(200);
+            response.setBody(request.getHeaders().get("X-Long").getBytes(StandardCharsets.UTF_8));
+            return response;
+        });
+
+        String value = "a".repeat(20_000);
+        HttpClient client = HttpClient.newHttpClient();
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:8080/test10"))
+                .header("X-Long", value)
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals(value, response.body());
+
+        // Больше максимального размера буфера чтения
+        response = client.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:8080/test10"))
+                .header("X-Long", "a".repeat(70_000))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(431, response.statusCode());
+    }
+
+    // Тестируем сервер с предварительным прогревом и таблицу кодов ответа
+    @Test
+    public void test11() throws Exception {
+        assertEquals("Not Found", Response.STATUS_CODES.get(404));
+        assertFalse(Response.STATUS_CODES.containsKey(299));
+        assertThrows(UnsupportedOperationException.class, () -> Response.STATUS_CODES.put(299, "Custom"));
+
+        int port = freePort();
+        HTTPServer warm = new HTTPServer("localhost", port, ServerConfig.builder().preTouch(true).build());
+        warm.addListener("/test11", "GET", request -> new Response(204));
+        Thread thread = new Thread(warm::start);
+        thread.start();
+        try {
+            Thread.sleep(500);
+            HttpResponse<String> response = clientSendGet("http://127.0.0.1:" + port + "/test11");
+            assertEquals(204, response.statusCode());
+        } finally {
+            warm.stop();
+        }
+        thread.join();
+    }
+
+    // Тестируем замену и удаление обработчика во время работы сервера
+    @Test
+    public void test12() throws IOException, InterruptedException {
+        server.addListener("/test12", "GET", request -> new Response(200));
+        assertEquals(200, clientSendGet("http://127.0.0.1:8080/test12").statusCode());
+
+        server.addListener("/test12", "GET", request -> new Response(204));
+        assertEquals(204, clientSendGet("http://127.0.0.1:8080/test12").statusCode());
+
+        assertTrue(server.removeListener("/test12", "GET"));
+        assertFalse(server.removeListener("/test12", "GET"));
+        assertEquals(404, clientSendGet("http://127.0.0.1:8080/test12").statusCode());
+    }
+
+    // Тестируем плавную остановку: начатый запрос завершается, соединение
+    // без запроса закрывается, новые соединения не принимаются
+    @Test
+    public void test13() throws Exception {
+        int port = freePort();
+        HTTPServer draining = new HTTPServer("localhost", port);
+        draining.addListener("/test13", "GET", request -> new Response(200));
+        Thread thread = new Thread(draining::start);
+        thread.start();
+        Thread.sleep(500);
+
+        try (Socket started = new Socket("localhost", port);
+             Socket idle = new Socket("localhost", port)) {
+            started.getOutputStream().write("GET /test13 HTTP/1.1\r\nHost: localhost\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(200);
+
+            draining.drain(Duration.ofSeconds(5));
+            idle.setSoTimeout(5000);
+            assertEquals(-1, idle.getInputStream().read());
+            assertThrows(IOException.class, () -> new Socket("localhost", port).close());
+
+            started.getOutputStream().write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            started.setSoTimeout(5000);
+            String response = new String(started.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.startsWith("HTTP/1.1 200"));
+        }
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    // Тестируем остановку по истечении срока завершения запросов
+    @Test
+    public void test14() throws Exception {
+        int port = freePort();
+        HTTPServer draining = new HTTPServer("localhost", port);
+        Thread thread = new Thread(draining::start);
+        thread.start();
+        Thread.sleep(500);
+
+        try (Socket started = new Socket("localhost", port)) {
+            started.getOutputStream().write("GET /test14 HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(200);
+
+            long start = System.nanoTime();
+            draining.drain(Duration.ofMillis(300));
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+            assertTrue(System.nanoTime() - start >= 250_000_000L);
+        }
+    }
+
+    // Тестируем, что одновременные загрузки multipart/form-data не объединяются
+    @Test
+    public void test15() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        server.addListener("/test15", "POST", request -> {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Response response = new Response(200);
+            response.setBody(request.getPart("f").getBytes());
+            return response;
+        }, new Coalescing(Duration.ofSeconds(5)));
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<CompletableFuture<HttpResponse<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            String body = "--b\r\nContent-Disposition: form-data; name=\"f\"\r\n\r\nvalue" + i + "\r\n--b--\r\n";
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://127.0.0.1:8080/test15"))
+                    .header("Content-Type", "multipart/form-data; boundary=b")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            futures.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        for (int i = 0; i < futures.size(); ++i) {
+            HttpResponse<String> response = futures.get(i).get();
+            assertEquals(200, response.statusCode());
+            assertEquals("value" + i, response.body());
+        }
+        assertEquals(2, calls.get());
+    }
+
+    // Тестируем, что ключ объединения различает путь и параметры
+    @Test
+    public void test16() {
+        Coalescing coalescing = new Coalescing(Duration.ofSeconds(1));
+        Request query = new Request();
+        query.setMethod("GET");
+        query.setPath("/x");
+        query.addQuery("a", "1");
+        Request path = new Request();
+        path.setMethod("GET");
+        path.setPath("/x&a=1");
+        assertNotEquals(RequestCoalescer.key(query, coalescing), RequestCoalescer.key(path, coalescing));
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Гистограмма задержек в микросекундах с относительной погрешностью около 1.5%.
+ * Значения группируются по степеням двойки, каждая степень делится на 64
+ * равных интервала. Не потокобезопасна.
+ */
+class LatencyHistogram {
+    // Интервалов на каждую степень двойки
+    private static final int SUB_BUCKETS = 64;
+
+    private static final int SUB_BUCKET_BITS = 6;
+
+    // Значения до 2^40 мкс (около 12 суток)
+    private static final int MAX_BITS = 40;
+
+    private final long[] counts = new long[(MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+
+    private long total;
+
+    private long max;
+
+    private double sum;
+
+    /**
+     * Добавляет значение.
+     *
+     * @param micros
+     */
+    void record(long micros) {
+        long value = Math.max(0, Math.min(micros, (1L << MAX_BITS) - 1));
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Добавляет значение с поправкой на coordinated omission для замкнутого цикла:
+     * пока запрос выполнялся дольше ожидаемого интервала, клиент не отправил
+     * запросы, которые тоже ждали бы. Их задержки добавляются с шагом interval.
+     *
+     * @param micros
+     * @param interval ожидаемый интервал между запросами клиента
+     */
+    void recordCorrected(long micros, long interval) {
+        record(micros);
+        if (interval <= 0) {
+            return;
+        }
+        for (long missed = micros - interval; missed >= interval; missed -= interval) {
+            record(missed);
+        }
+    }
+
+    /**
+     * Добавляет значения другой гистограммы.
+     *
+     * @param other
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    double getMean() {
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * Значение, не меньше которого доля q значений.
+     *
+     * @param q доля от 0 до 1
+     * @return верхняя граница интервала, в который попал перцентиль
+     */
+    long percentile(double q) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    // Значения меньше 128 хранятся точно, дальше - старшие 7 бит
+    private static int index(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long upperBound(int index) {
+        int shift = Math.max(0, index / SUB_BUCKETS - 1);
+        long top = index - shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
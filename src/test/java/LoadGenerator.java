@@ -0,0 +1,484 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * Генератор нагрузки HTTP/1.1 на java.nio в одном потоке.
+ * <p>
+ * Замкнутый цикл (closed loop): фиксированное число соединений, каждое отправляет
+ * следующий запрос сразу после ответа. Открытый цикл (open loop): запросы
+ * поступают с заданной частотой независимо от ответов, задержка отсчитывается
+ * от запланированного времени отправки, поэтому отставание генератора или
+ * сервера не скрывает задержки (coordinated omission). В замкнутом цикле
+ * поправка вносится по ожидаемому интервалу между запросами.
+ * <p>
+ * Ответ считается полученным по Content-Length или по закрытию соединения.
+ * Соединение используется повторно, если включен keepAlive и сервер не ответил
+ * "Connection: close".
+ */
+class LoadGenerator {
+    // Шаг ограничения скорости чтения медленных клиентов
+    private static final long READ_TICK = 10_000_000L;
+
+    // Сколько ждать выполняющиеся запросы после окончания замера
+    private static final long GRACE = 5_000_000_000L;
+
+    private final InetSocketAddress address;
+
+    private byte[] request;
+
+    private int connections = 1;
+
+    // Запросов в секунду, 0 - замкнутый цикл
+    private double rate;
+
+    private boolean keepAlive;
+
+    // Байт в секунду на соединение, 0 - без ограничения
+    private int readRate;
+
+    private long warmupNanos;
+
+    private long durationNanos;
+
+    // Ожидаемый интервал между запросами клиента в замкнутом цикле
+    private long expectedIntervalMicros;
+
+    // Замер памяти, выделенной сервером
+    private LongSupplier allocationProbe = () -> 0;
+
+    private Selector selector;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    // Запланированные, но еще не отправленные запросы открытого цикла
+    private final Deque<Long> backlog = new ArrayDeque<>();
+
+    // Соединения, ожидающие разрешения читать дальше
+    private final PriorityQueue<Exchange> throttled =
+            new PriorityQueue<>((a, b) -> Long.compare(a.readAt, b.readAt));
+
+    private final List<Exchange> idle = new ArrayList<>();
+
+    private int active;
+
+    private long measureStart;
+
+    private long measureEnd;
+
+    private boolean stopping;
+
+    private Result result;
+
+    LoadGenerator(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    LoadGenerator request(String request) {
+        return request(request.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    LoadGenerator request(byte[] request) {
+        this.request = request;
+        return this;
+    }
+
+    /**
+     * Замкнутый цикл с заданным числом соединений.
+     *
+     * @param connections
+     * @return
+     */
+    LoadGenerator closedLoop(int connections) {
+        this.connections = connections;
+        this.rate = 0;
+        return this;
+    }
+
+    /**
+     * Открытый цикл с заданной частотой запросов.
+     *
+     * @param rate           запросов в секунду
+     * @param maxConnections ограничение одновременных соединений
+     * @return
+     */
+    LoadGenerator openLoop(double rate, int maxConnections) {
+        this.rate = rate;
+        this.connections = maxConnections;
+        return this;
+    }
+
+    LoadGenerator keepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Медленное чтение ответа.
+     *
+     * @param bytesPerSecond скорость чтения одного соединения
+     * @return
+     */
+    LoadGenerator readRate(int bytesPerSecond) {
+        this.readRate = bytesPerSecond;
+        return this;
+    }
+
+    LoadGenerator warmup(double seconds) {
+        this.warmupNanos = (long) (seconds * 1e9);
+        return this;
+    }
+
+    LoadGenerator duration(double seconds) {
+        this.durationNanos = (long) (seconds * 1e9);
+        return this;
+    }
+
+    LoadGenerator expectedInterval(long micros) {
+        this.expectedIntervalMicros = micros;
+        return this;
+    }
+
+    LoadGenerator allocationProbe(LongSupplier allocationProbe) {
+        this.allocationProbe = allocationProbe;
+        return this;
+    }
+
+    /**
+     * Выполняет прогрев и замер.
+     *
+     * @return результаты замера
+     * @throws IOException
+     */
+    Result run() throws IOException {
+        selector = Selector.open();
+        result = new Result();
+        result.mode = rate > 0 ? "open" : "closed";
+        long start = System.nanoTime();
+        measureStart = start + warmupNanos;
+        measureEnd = measureStart + durationNanos;
+        long allocatedBefore = 0;
+        boolean measuring = false;
+        long nextArrival = start;
+        long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+
+        if (rate == 0) {
+            for (int i = 0; i < connections; ++i) {
+                start(start);
+            }
+        }
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (!measuring && now >= measureStart) {
+                    measuring = true;
+                    allocatedBefore = allocationProbe.getAsLong();
+                }
+                if (!stopping && now >= measureEnd) {
+                    stopping = true;
+                    result.allocatedBytes = allocationProbe.getAsLong() - allocatedBefore;
+                    result.timeouts += backlog.size();
+                    backlog.clear();
+                }
+                if (stopping && (active == 0 || now >= measureEnd + GRACE)) {
+                    result.timeouts += active;
+                    break;
+                }
+                if (rate > 0 && !stopping) {
+                    for (; nextArrival <= now; nextArrival += interval) {
+                        if (active < connections) {
+                            start(nextArrival);
+                        } else {
+                            backlog.add(nextArrival);
+                        }
+                    }
+                }
+                while (!throttled.isEmpty() && throttled.peek().readAt <= now) {
+                    Exchange exchange = throttled.poll();
+                    if (exchange.key.isValid()) {
+                        exchange.key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+
+                long wait = stopping ? measureEnd + GRACE - now : measureEnd - now;
+                if (rate > 0 && !stopping) {
+                    wait = Math.min(wait, nextArrival - now);
+                }
+                if (!throttled.isEmpty()) {
+                    wait = Math.min(wait, throttled.peek().readAt - now);
+                }
+                if (wait <= 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(Math.max(1, wait / 1_000_000));
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Exchange exchange = (Exchange) key.attachment();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isConnectable()) {
+                            exchange.channel.finishConnect();
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        } else if (key.isWritable()) {
+                            exchange.channel.write(exchange.out);
+                            if (!exchange.out.hasRemaining()) {
+                                key.interestOps(SelectionKey.OP_READ);
+                            }
+                        } else if (key.isReadable()) {
+                            read(exchange);
+                        }
+                    } catch (IOException e) {
+                        fail(exchange);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            try {
+                selector.close();
+            } catch (ClosedSelectorException ignored) {
+                // уже закрыт
+            }
+        }
+        result.elapsedNanos = durationNanos;
+        return result;
+    }
+
+    // Отправка запроса по свободному или новому соединению
+    private void start(long intended) {
+        Exchange reuse = idle.isEmpty() ? null : idle.remove(idle.size() - 1);
+        try {
+            send(reuse, intended);
+        } catch (IOException e) {
+            if (intended >= measureStart && intended < measureEnd) {
+                result.errors++;
+            }
+        }
+    }
+
+    private void send(Exchange reuse, long intended) throws IOException {
+        Exchange exchange = reuse;
+        if (exchange == null) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            exchange = new Exchange(channel);
+            if (channel.connect(address)) {
+                exchange.key = channel.register(selector, SelectionKey.OP_WRITE, exchange);
+            } else {
+                exchange.key = channel.register(selector, SelectionKey.OP_CONNECT, exchange);
+            }
+        } else {
+            exchange.key.interestOps(SelectionKey.OP_WRITE);
+        }
+        exchange.reset(request, intended);
+        active++;
+    }
+
+    // Чтение и разбор ответа
+    private void read(Exchange exchange) throws IOException {
+        readBuffer.clear();
+        if (readRate > 0) {
+            readBuffer.limit((int) Math.max(1, Math.min(readBuffer.capacity(), readRate * READ_TICK / 1_000_000_000L)));
+        }
+        int read = exchange.channel.read(readBuffer);
+        if (read < 0) {
+            if (exchange.contentLength < 0 && exchange.headersDone) {
+                // Тело без Content-Length заканчивается закрытием соединения
+                complete(exchange, false);
+                return;
+            }
+            throw new IOException("Connection closed before the response was received");
+        }
+        readBuffer.flip();
+        if (!exchange.headersDone) {
+            exchange.parseHeaders(readBuffer);
+        }
+        exchange.bodyRead += readBuffer.remaining();
+        if (exchange.headersDone && exchange.contentLength >= 0 && exchange.bodyRead >= exchange.contentLength) {
+            complete(exchange, keepAlive && !exchange.close);
+            return;
+        }
+        if (readRate > 0 && read > 0) {
+            exchange.key.interestOps(0);
+            exchange.readAt = System.nanoTime() + READ_TICK;
+            throttled.add(exchange);
+        }
+    }
+
+    // Ответ получен полностью
+    private void complete(Exchange exchange, boolean reuse) throws IOException {
+        active--;
+        long now = System.nanoTime();
+        if (exchange.intended >= measureStart && exchange.intended < measureEnd) {
+            long micros = (now - exchange.intended) / 1000;
+            if (rate > 0) {
+                result.histogram.record(micros);
+            } else {
+                result.histogram.recordCorrected(micros, expectedIntervalMicros);
+            }
+            result.requests++;
+            result.status[Math.min(exchange.status, 599)]++;
+        }
+        if (!reuse) {
+            exchange.key.cancel();
+            exchange.channel.close();
+        } else {
+            exchange.key.interestOps(0);
+            idle.add(exchange);
+        }
+        next(now);
+    }
+
+    // Ошибка соединения
+    private void fail(Exchange exchange) {
+        active--;
+        if (exchange.intended >= measureStart && exchange.intended < measureEnd) {
+            result.errors++;
+        }
+        exchange.key.cancel();
+        try {
+            exchange.channel.close();
+        } catch (IOException ignored) {
+            // соединение уже закрыто
+        }
+        next(System.nanoTime());
+    }
+
+    // Следующий запрос после завершения предыдущего
+    private void next(long now) {
+        if (stopping) {
+            return;
+        }
+        if (rate == 0) {
+            start(now);
+        } else if (!backlog.isEmpty()) {
+            start(backlog.poll());
+        }
+    }
+
+    // Состояние одного обмена запрос-ответ
+    private static class Exchange {
+        final SocketChannel channel;
+
+        SelectionKey key;
+
+        ByteBuffer out;
+
+        long intended;
+
+        long readAt;
+
+        // Начало ответа до конца заголовков
+        final StringBuilder head = new StringBuilder();
+
+        boolean headersDone;
+
+        int status;
+
+        long contentLength;
+
+        boolean close;
+
+        long bodyRead;
+
+        Exchange(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void reset(byte[] request, long intended) {
+            this.out = ByteBuffer.wrap(request);
+            this.intended = intended;
+            head.setLength(0);
+            headersDone = false;
+            status = 0;
+            contentLength = -1;
+            close = false;
+            bodyRead = 0;
+        }
+
+        // Накапливает заголовки; после разбора в buffer остается только тело
+        void parseHeaders(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                head.append((char) buffer.get());
+                int length = head.length();
+                if (length >= 4 && head.charAt(length - 1) == '\n' && head.charAt(length - 2) == '\r'
+                        && head.charAt(length - 3) == '\n' && head.charAt(length - 4) == '\r') {
+                    headersDone = true;
+                    break;
+                }
+            }
+            if (!headersDone) {
+                return;
+            }
+            String[] lines = head.toString().split("\r\n");
+            String[] statusLine = lines[0].split(" ");
+            if (statusLine.length < 2) {
+                throw new IOException("Malformed status line: " + lines[0]);
+            }
+            status = Integer.parseInt(statusLine[1]);
+            for (int i = 1; i < lines.length; ++i) {
+                int colon = lines[i].indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equals("connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+        }
+    }
+
+    /**
+     * Результаты замера.
+     */
+    static class Result {
+        String mode;
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        // Ответы по кодам состояния
+        final long[] status = new long[600];
+
+        long requests;
+
+        long errors;
+
+        // Не отправленные или не завершенные к концу замера запросы
+        long timeouts;
+
+        long elapsedNanos;
+
+        long allocatedBytes;
+
+        double requestsPerSecond() {
+            return requests / (elapsedNanos / 1e9);
+        }
+    }
+}
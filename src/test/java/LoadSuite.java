@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Набор нагрузочных сценариев для сравнения версий сервера.
+ * Каждый сценарий запускает отдельный сервер в этом же процессе и нагружает его
+ * через loopback генератором {@link LoadGenerator}. Результаты (запросы в секунду,
+ * задержки p50/p99/p999 с поправкой на coordinated omission, память, выделенная
+ * потоком сервера) выводятся в консоль и записываются в JSON.
+ * <p>
+ * Запуск: {@code mvn -Pload verify}, результаты - в target/load-results.json.
+ * <p>
+ * Свойства: load.seconds - длительность замера (5), load.warmup - прогрев (2),
+ * load.rate - частота запросов открытого цикла (2000), load.scenarios - список
+ * сценариев через запятую (все). Если задан load.baseline - путь к результатам
+ * предыдущей версии, - запуск завершается ошибкой при падении пропускной способности
+ * или росте p99 больше чем на load.tolerance (0.25), с запасом load.slackMicros (500)
+ * для p99, а также при ошибках соединений.
+ */
+public class LoadSuite {
+    private static final String SMALL = "GET /small HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+    private static final int ECHO_SIZE = 256 * 1024;
+
+    private static final int LARGE_SIZE = 256 * 1024;
+
+    private static final double SECONDS = Double.parseDouble(System.getProperty("load.seconds", "5"));
+
+    private static final double WARMUP = Double.parseDouble(System.getProperty("load.warmup", "2"));
+
+    private static final double RATE = Double.parseDouble(System.getProperty("load.rate", "2000"));
+
+    public static void main(String[] args) throws Exception {
+        Path output = Path.of(args.length > 0 ? args[0] : "target/load-results.json");
+        List<String> selected = System.getProperty("load.scenarios") != null
+                ? Arrays.asList(System.getProperty("load.scenarios").split(",")) : null;
+
+        Map<String, Function<InetSocketAddress, LoadGenerator>> scenarios = new LinkedHashMap<>();
+        // Соединение на запрос, маленький ответ, фиксированное число клиентов
+        scenarios.put("small-get-closed", address -> new LoadGenerator(address)
+                .request(SMALL)
+                .closedLoop(8));
+        // Те же запросы с фиксированной частотой
+        scenarios.put("small-get-open", address -> new LoadGenerator(address)
+                .request(SMALL)
+                .openLoop(RATE, 1000));
+        // Клиент оставляет соединение открытым, если сервер это допускает.
+        // Сервер закрывает соединение после каждого ответа, поэтому пока
+        // этот сценарий совпадает с small-get-closed
+        scenarios.put("small-get-keepalive", address -> new LoadGenerator(address)
+                .request(SMALL)
+                .closedLoop(8)
+                .keepAlive(true));
+        // Большое тело запроса через Request.getBody() и обратно
+        scenarios.put("large-post-echo", address -> new LoadGenerator(address)
+                .request(echoRequest())
+                .closedLoop(4));
+        // Обработчик, занимающий основной цикл на 2 мс
+        scenarios.put("slow-handler-open", address -> new LoadGenerator(address)
+                .request("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .openLoop(Math.min(RATE, 200), 1000));
+        // Маленькие запросы, пока медленные клиенты читают большие ответы
+        scenarios.put("slow-readers", address -> new LoadGenerator(address)
+                .request(SMALL)
+                .openLoop(Math.min(RATE, 1000), 1000));
+
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        System.out.printf("%-20s %-6s %10s %9s %9s %9s %9s %7s %12s%n", "scenario", "mode", "req/s",
+                "p50 us", "p99 us", "p999 us", "max us", "errors", "alloc B/req");
+        for (Map.Entry<String, Function<InetSocketAddress, LoadGenerator>> scenario : scenarios.entrySet()) {
+            if (selected != null && !selected.contains(scenario.getKey())) {
+                continue;
+            }
+            Map<String, Object> result = run(scenario.getKey(), scenario.getValue());
+            results.put(scenario.getKey(), result);
+            System.out.printf(Locale.ROOT, "%-20s %-6s %10.1f %9d %9d %9d %9d %7d %12d%n", scenario.getKey(),
+                    result.get("mode"), result.get("requestsPerSecond"), result.get("p50Micros"),
+                    result.get("p99Micros"), result.get("p999Micros"), result.get("maxMicros"),
+                    result.get("errors"), result.get("allocatedBytesPerRequest"));
+        }
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        Files.writeString(output, toJson(results));
+        System.out.println("Results written to " + output);
+
+        String baseline = System.getProperty("load.baseline");
+        if (baseline != null) {
+            compare(results, parseJson(Files.readString(Path.of(baseline))));
+        }
+    }
+
+    // Запуск одного сценария на отдельном сервере
+    private static Map<String, Object> run(String name, Function<InetSocketAddress, LoadGenerator> scenario)
+            throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ServerConfig.Builder config = ServerConfig.builder();
+        if (name.equals("slow-readers")) {
+            // Маленький буфер отправки, чтобы ответы медленным клиентам
+            // действительно ждали в сервере, а не в ядре
+            config.sendBufferSize(16 * 1024);
+        }
+        HTTPServer server = new HTTPServer("localhost", port, config.build());
+        byte[] hello = "Hello world!".getBytes(StandardCharsets.UTF_8);
+        server.addListener("/small", "GET", request -> {
+            Response response = new Response(200);
+            response.addHeader("Content-Type", "text/plain");
+            response.setBody(hello);
+            return response;
+        });
+        server.addListener("/echo", "POST", request -> {
+            Response response = new Response(200);
+            response.setBody(request.getBody());
+            return response;
+        });
+        server.addListener("/slow", "GET", request -> {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Response(204);
+        });
+        Response large = new Response(200);
+        large.setBody(new byte[LARGE_SIZE]);
+        FrozenResponse frozenLarge = large.freeze();
+        server.addListener("/large", "GET", request -> frozenLarge);
+
+        Thread serverThread = new Thread(server::start, "server");
+        serverThread.start();
+        Thread.sleep(500);
+        InetSocketAddress address = new InetSocketAddress("localhost", port);
+
+        Thread background = null;
+        if (name.equals("slow-readers")) {
+            // 16 клиентов читают ответы по 256 КБ со скоростью 128 КБ/с
+            LoadGenerator slow = new LoadGenerator(address)
+                    .request("GET /large HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .closedLoop(16)
+                    .readRate(128 * 1024)
+                    .duration(WARMUP + SECONDS);
+            background = new Thread(() -> {
+                try {
+                    slow.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, "slow-readers");
+            background.start();
+        }
+
+        try {
+            LoadGenerator generator = scenario.apply(address);
+            long interval = 0;
+            if (WARMUP > 0) {
+                // Прогрев; средняя задержка замкнутого цикла - ожидаемый интервал между запросами
+                LoadGenerator.Result warmup = scenario.apply(address).duration(WARMUP).run();
+                interval = Math.round(warmup.histogram.getMean());
+            }
+            com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            LoadGenerator.Result result = generator
+                    .duration(SECONDS)
+                    .expectedInterval(interval)
+                    .allocationProbe(() -> threads.getThreadAllocatedBytes(serverThread.threadId()))
+                    .run();
+
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("mode", result.mode);
+            json.put("requests", result.requests);
+            json.put("errors", result.errors);
+            json.put("timeouts", result.timeouts);
+            json.put("requestsPerSecond", result.requestsPerSecond());
+            json.put("p50Micros", result.histogram.percentile(0.50));
+            json.put("p99Micros", result.histogram.percentile(0.99));
+            json.put("p999Micros", result.histogram.percentile(0.999));
+            json.put("maxMicros", result.histogram.getMax());
+            json.put("allocatedBytesPerRequest", result.requests == 0 ? 0 : result.allocatedBytes / result.requests);
+            json.put("allocationRateMBPerSecond", result.allocatedBytes / (SECONDS * 1024 * 1024));
+            long non2xx = 0;
+            for (int code = 0; code < result.status.length; ++code) {
+                if (code < 200 || code >= 300) {
+                    non2xx += result.status[code];
+                }
+            }
+            json.put("non2xx", non2xx);
+            return json;
+        } finally {
+            if (background != null) {
+                background.join();
+            }
+            server.stop();
+            serverThread.join(1000);
+        }
+    }
+
+    private static byte[] echoRequest() {
+        byte[] head = ("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + ECHO_SIZE + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        byte[] request = Arrays.copyOf(head, head.length + ECHO_SIZE);
+        Arrays.fill(request, head.length, request.length, (byte) 'a');
+        return request;
+    }
+
+    // Сравнение с результатами предыдущей версии
+    private static void compare(Map<String, Map<String, Object>> results, Map<String, Map<String, Double>> baseline) {
+        double tolerance = Double.parseDouble(System.getProperty("load.tolerance", "0.25"));
+        double slack = Double.parseDouble(System.getProperty("load.slackMicros", "500"));
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Object>> entry : results.entrySet()) {
+            Map<String, Object> current = entry.getValue();
+            Map<String, Double> base = baseline.get(entry.getKey());
+            if (((Number) current.get("errors")).longValue() > 0) {
+                regressions.add(entry.getKey() + ": " + current.get("errors") + " errors");
+            }
+            if (base == null) {
+                continue;
+            }
+            double rps = ((Number) current.get("requestsPerSecond")).doubleValue();
+            if (current.get("mode").equals("closed") && rps < base.get("requestsPerSecond") * (1 - tolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s: %.1f req/s, baseline %.1f",
+                        entry.getKey(), rps, base.get("requestsPerSecond")));
+            }
+            double p99 = ((Number) current.get("p99Micros")).doubleValue();
+            if (p99 > base.get("p99Micros") * (1 + tolerance) + slack) {
+                regressions.add(String.format(Locale.ROOT, "%s: p99 %.0f us, baseline %.0f us",
+                        entry.getKey(), p99, base.get("p99Micros")));
+            }
+        }
+        if (!regressions.isEmpty()) {
+            throw new IllegalStateException("Load regression:\n  " + String.join("\n  ", regressions));
+        }
+        System.out.println("No regressions against the baseline");
+    }
+
+    private static String toJson(Map<String, Map<String, Object>> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        sb.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        sb.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        sb.append("  \"scenarios\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Map<String, Object>> scenario : results.entrySet()) {
+            sb.append(separator).append("    \"").append(scenario.getKey()).append("\": {");
+            String fieldSeparator = "";
+            for (Map.Entry<String, Object> field : scenario.getValue().entrySet()) {
+                sb.append(fieldSeparator).append('"').append(field.getKey()).append("\": ");
+                Object value = field.getValue();
+                if (value instanceof String) {
+                    sb.append('"').append(value).append('"');
+                } else if (value instanceof Double) {
+                    sb.append(String.format(Locale.ROOT, "%.1f", value));
+                } else {
+                    sb.append(value);
+                }
+                fieldSeparator = ", ";
+            }
+            sb.append('}');
+            separator = ",\n";
+        }
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+
+    // Разбор числовых полей сценариев из файла, записанного toJson
+    private static Map<String, Map<String, Double>> parseJson(String json) {
+        Map<String, Map<String, Double>> scenarios = new HashMap<>();
+        Matcher scenario = Pattern.compile("\"([\\w-]+)\":\\s*\\{([^{}]*)}").matcher(json);
+        while (scenario.find()) {
+            Map<String, Double> fields = new HashMap<>();
+            Matcher field = Pattern.compile("\"(\\w+)\":\\s*(-?[0-9.eE+-]+)").matcher(scenario.group(2));
+            while (field.find()) {
+                fields.put(field.group(1), Double.parseDouble(field.group(2)));
+            }
+            scenarios.put(scenario.group(1), fields);
+        }
+        return scenarios;
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryBudgetTest {
+    private static final int BODY_SIZE = 20_000;
+
+    // Буфер чтения и одно тело, второе тело уже не помещается
+    private static final MemoryBudget BUDGET = new MemoryBudget(
+            Connection.READ_BUFFER_SIZE + BODY_SIZE + 10_000, 25_000);
+
+    private static HTTPServer server;
+
+    // Запуск сервера с маленьким лимитом памяти
+    @BeforeAll
+    public static void beforeAll() throws InterruptedException {
+        server = new HTTPServer("localhost", 8082, ServerConfig.builder()
+                .memoryBudget(BUDGET)
+                .adaptiveReadBuffer(false)
+                .build());
+        server.addListener("/echo", "POST", request -> {
+            Response response = new Response(200);
+            response.addHeader("Content-Type", "text/plain");
+            response.setBody(request.getBody());
+            return response;
+        });
+        new Thread(server::start).start();
+        Thread.sleep(500);
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        server.stop();
+    }
+
+    // Второе тело ждет, пока первое не освободит память
+    @Test
+    public void pauseAndResume() throws Exception {
+        String headers = "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + BODY_SIZE + "\r\n\r\n";
+        String body = "a".repeat(BODY_SIZE);
+        long pauses = BUDGET.getPauseCount();
+
+        try (Socket first = new Socket("localhost", 8082); Socket second = new Socket("localhost", 8082)) {
+            OutputStream out1 = first.getOutputStream();
+            out1.write((headers + body.substring(0, 100)).getBytes(StandardCharsets.UTF_8));
+            out1.flush();
+            Thread.sleep(200);
+
+            OutputStream out2 = second.getOutputStream();
+            out2.write((headers + body).getBytes(StandardCharsets.UTF_8));
+            out2.flush();
+            Thread.sleep(200);
+            assertEquals(pauses + 1, BUDGET.getPauseCount());
+            assertEquals(1, BUDGET.getPausedConnections());
+
+            out1.write(body.substring(100).getBytes(StandardCharsets.UTF_8));
+            out1.flush();
+            assertTrue(readResponse(first).endsWith(body));
+            assertTrue(readResponse(second).endsWith(body));
+            assertEquals(0, BUDGET.getPausedConnections());
+        }
+    }
+
+    // Тело больше порога отображается во временный файл
+    @Test
+    public void spill() throws IOException, InterruptedException {
+        String body = "0123456789".repeat(3_000);
+        HttpClient client = HttpClient.newHttpClient();
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:8082/echo"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals(body, response.body());
+    }
+
+    // Несколько ожидающих соединений не блокируют друг друга: пока они ждут,
+    // буферы заголовков не занимают лимит
+    @Test
+    public void manyPaused() throws Exception {
+        MemoryBudget budget = new MemoryBudget(39_000, 30_000);
+        int port = freePort();
+        HTTPServer small = startEcho(port, budget, Duration.ofSeconds(5));
+        String headers = "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + BODY_SIZE + "\r\n\r\n";
+        String body = "a".repeat(BODY_SIZE);
+
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            Socket first = new Socket("localhost", port);
+            sockets.add(first);
+            first.getOutputStream().write((headers + body.substring(0, 100)).getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(200);
+            for (int i = 0; i < 3; ++i) {
+                Socket socket = new Socket("localhost", port);
+                sockets.add(socket);
+                socket.getOutputStream().write((headers + body.substring(0, 100)).getBytes(StandardCharsets.UTF_8));
+            }
+            Thread.sleep(200);
+            assertEquals(3, budget.getPausedConnections());
+            assertEquals(BODY_SIZE, budget.getUsed());
+
+            for (Socket socket : sockets) {
+                socket.getOutputStream().write(body.substring(100).getBytes(StandardCharsets.UTF_8));
+            }
+            for (Socket socket : sockets) {
+                socket.setSoTimeout(5000);
+                assertTrue(readResponse(socket).endsWith(body));
+            }
+            assertEquals(0, budget.getPausedConnections());
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            small.stop();
+        }
+    }
+
+    // Соединение, не дождавшееся памяти, получает 503
+    @Test
+    public void pauseTimeout() throws Exception {
+        MemoryBudget budget = new MemoryBudget(30_000, 30_000);
+        int port = freePort();
+        HTTPServer small = startEcho(port, budget, Duration.ofMillis(300));
+        String headers = "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + BODY_SIZE + "\r\n\r\n";
+
+        try (Socket first = new Socket("localhost", port); Socket second = new Socket("localhost", port)) {
+            // Первое тело не дописывается и держит память
+            first.getOutputStream().write(headers.getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(200);
+            second.getOutputStream().write(headers.getBytes(StandardCharsets.UTF_8));
+            second.setSoTimeout(5000);
+            assertTrue(readResponse(second).startsWith("HTTP/1.1 503"));
+            assertEquals(0, budget.getPausedConnections());
+        } finally {
+            small.stop();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static HTTPServer startEcho(int port, MemoryBudget budget, Duration memoryWait)
+            throws InterruptedException {
+        HTTPServer small = new HTTPServer("localhost", port, ServerConfig.builder()
+                .memoryBudget(budget)
+                .memoryWait(memoryWait)
+                .adaptiveReadBuffer(false)
+                .build());
+        small.addListener("/echo", "POST", request -> {
+            Response response = new Response(200);
+            response.setBody(request.getBody());
+            return response;
+        });
+        new Thread(small::start).start();
+        Thread.sleep(500);
+        return small;
+    }
+
+    private static String readResponse(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartParserTest {
+    private static final String BOUNDARY = "XyZ";
+
+    private static final String BODY = "preamble\r\n"
+            + "--XyZ\r\n"
+            + "Content-Disposition: form-data; name=\"a\"\r\n\r\n"
+            + "value with --XyZ inside\r\n"
+            + "--XyZ\r\n"
+            + "Content-Disposition: form-data; name=\"big\"\r\n\r\n"
+            + "0123456789".repeat(10) + "\r\n"
+            + "--XyZ\r\n"
+            + "Content-Disposition: form-data; name=\"f\"; filename=\"semi;colon.bin\"\r\n"
+            + "Content-Type: application/octet-stream\r\n\r\n"
+            + "\r\n\r\n--Xy\r\n"
+            + "--XyZ--\r\n"
+            + "epilogue";
+
+    // Разбор при подаче тела по одному байту: разделитель разрезан между порциями
+    @Test
+    public void byteByByte() throws Exception {
+        MultipartParser parser = new MultipartParser(BOUNDARY, 128, 64);
+        byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            parser.feed(ByteBuffer.wrap(new byte[]{b}));
+        }
+        parser.finish();
+
+        List<Part> parts = parser.getParts();
+        assertEquals(3, parts.size());
+
+        assertEquals("a", parts.get(0).getName());
+        assertTrue(parts.get(0).isInMemory());
+        assertEquals("value with --XyZ inside", new String(parts.get(0).getBytes(), StandardCharsets.UTF_8));
+
+        // Поле больше порога сброшено на диск
+        Part big = parts.get(1);
+        assertFalse(big.isInMemory());
+        assertEquals(100, big.getSize());
+        assertEquals("0123456789".repeat(10), Files.readString(big.getFile()));
+
+        Part file = parts.get(2);
+        assertEquals("semi;colon.bin", file.getFileName());
+        assertEquals("application/octet-stream", file.getContentType());
+        assertArrayEquals("\r\n\r\n--Xy".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file.getFile()));
+
+        parser.discard();
+        assertFalse(Files.exists(big.getFile()));
+        assertFalse(Files.exists(file.getFile()));
+    }
+
+    // Тело без закрывающей границы
+    @Test
+    public void truncated() throws IOException, Connection.RequestException {
+        MultipartParser parser = new MultipartParser(BOUNDARY, 1024, 1024);
+        parser.feed(ByteBuffer.wrap(BODY.substring(0, 120).getBytes(StandardCharsets.UTF_8)));
+        Connection.RequestException e = assertThrows(Connection.RequestException.class, parser::finish);
+        assertEquals(400, e.getErrorCode());
+        parser.discard();
+    }
+
+    // Много небольших полей: после половины общего лимита поля сбрасываются на диск
+    @Test
+    public void memoryLimit() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            body.append("--XyZ\r\nContent-Disposition: form-data; name=\"f").append(i).append("\"\r\n\r\n")
+                    .append("x".repeat(50)).append("\r\n");
+        }
+        body.append("--XyZ--\r\n");
+        MultipartParser parser = new MultipartParser(BOUNDARY, 128, 64, 1000);
+        parser.feed(ByteBuffer.wrap(body.toString().getBytes(StandardCharsets.UTF_8)));
+        parser.finish();
+
+        List<Part> parts = parser.getParts();
+        assertEquals(10, parts.size());
+        long inMemory = 0;
+        for (Part part : parts) {
+            if (part.isInMemory()) {
+                assertEquals("x".repeat(50), new String(part.getBytes(), StandardCharsets.UTF_8));
+                inMemory += part.getSize();
+            } else {
+                assertEquals("x".repeat(50), Files.readString(part.getFile()));
+            }
+        }
+        // Заголовок каждой части занимает 41 байт, поле - 50
+        assertEquals(250, inMemory);
+        assertFalse(parts.get(9).isInMemory());
+        parser.discard();
+    }
+
+    // Много пустых полей: число частей ограничено
+    @Test
+    public void tooManyParts() throws Exception {
+        MultipartParser parser = new MultipartParser(BOUNDARY, 128, 64);
+        Connection.RequestException e = assertThrows(Connection.RequestException.class, () -> {
+            for (int i = 0; i <= MultipartParser.MAX_PARTS; ++i) {
+                parser.feed(ByteBuffer.wrap("--XyZ\r\nContent-Disposition: form-data; name=\"f\"\r\n\r\n\r\n"
+                        .getBytes(StandardCharsets.UTF_8)));
+            }
+            parser.feed(ByteBuffer.wrap("--XyZ--\r\n".getBytes(StandardCharsets.UTF_8)));
+        });
+        assertEquals(413, e.getErrorCode());
+        assertEquals(MultipartParser.MAX_PARTS, parser.getParts().size());
+        parser.discard();
+    }
+
+    // Заголовки частей учитываются в лимите памяти
+    @Test
+    public void headersLimit() throws Exception {
+        String name = "n".repeat(100);
+        MultipartParser parser = new MultipartParser(BOUNDARY, 1024, 64, 1000);
+        Connection.RequestException e = assertThrows(Connection.RequestException.class, () -> {
+            for (int i = 0; i < 20; ++i) {
+                parser.feed(ByteBuffer.wrap(("--XyZ\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n\r\n")
+                        .getBytes(StandardCharsets.UTF_8)));
+            }
+        });
+        assertEquals(413, e.getErrorCode());
+        parser.discard();
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Самоподписанный сертификат для localhost, создаваемый утилитой keytool.
+ * Используется в тестах и бенчмарках HTTPS.
+ */
+class SelfSignedKeyStore {
+    static final char[] PASSWORD = "changeit".toCharArray();
+
+    private final KeyStore keyStore;
+
+    private SelfSignedKeyStore(KeyStore keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    /**
+     * Создает хранилище ключей во временном каталоге.
+     *
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws GeneralSecurityException
+     */
+    static SelfSignedKeyStore generate() throws IOException, InterruptedException, GeneralSecurityException {
+        Path dir = Files.createTempDirectory("keystore");
+        Path file = dir.resolve("server.p12");
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool,
+                "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", file.toString(),
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        process.getInputStream().transferTo(System.out);
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed with code " + process.exitValue());
+        }
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(file)) {
+            keyStore.load(in, PASSWORD);
+        }
+        Files.delete(file);
+        Files.delete(dir);
+        return new SelfSignedKeyStore(keyStore);
+    }
+
+    /**
+     * Контекст TLS для сервера.
+     *
+     * @return
+     * @throws GeneralSecurityException
+     */
+    SSLContext serverContext() throws GeneralSecurityException {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * Контекст TLS для клиента, доверяющего этому сертификату.
+     *
+     * @return
+     * @throws GeneralSecurityException
+     */
+    SSLContext clientContext() throws GeneralSecurityException {
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, tmf.getTrustManagers(), null);
+        return context;
+    }
+}
@@ -0,0 +1,82 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerEventsTest {
+    private static final List<String> EVENTS = List.of(
+            "httpserver.ConnectionAccept", "httpserver.ConnectionClose", "httpserver.HeaderParse",
+            "httpserver.HandlerInvocation", "httpserver.ResponseWrite", "httpserver.SelectorLoop");
+
+    // Все события одного запроса записываются и связаны идентификаторами
+    @Test
+    public void lifecycle() throws Exception {
+        HTTPServer server = new HTTPServer("localhost", 8083);
+        server.addListener("/events", "GET", request -> new Response(204));
+        new Thread(server::start).start();
+        Thread.sleep(500);
+
+        Path file = Files.createTempFile("events", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : EVENTS) {
+                recording.enable(event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://127.0.0.1:8083/events"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(204, response.statusCode());
+            Thread.sleep(200);
+            recording.stop();
+            recording.dump(file);
+        } finally {
+            server.stop();
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().startsWith("httpserver."))
+                .collect(Collectors.toList());
+        Files.delete(file);
+
+        RecordedEvent handler = find(events, "httpserver.HandlerInvocation");
+        assertEquals("GET /events", handler.getString("route"));
+        assertEquals(204, handler.getInt("statusCode"));
+        long connectionId = handler.getLong("connectionId");
+        long requestId = handler.getLong("requestId");
+
+        RecordedEvent parse = find(events, "httpserver.HeaderParse");
+        assertEquals(connectionId, parse.getLong("connectionId"));
+        assertEquals(requestId, parse.getLong("requestId"));
+        assertEquals("/events", parse.getString("path"));
+
+        RecordedEvent write = find(events, "httpserver.ResponseWrite");
+        assertEquals(requestId, write.getLong("requestId"));
+        assertEquals(0, write.getInt("partialWrites"));
+
+        assertEquals(connectionId, find(events, "httpserver.ConnectionAccept").getLong("connectionId"));
+        assertEquals(connectionId, find(events, "httpserver.ConnectionClose").getLong("connectionId"));
+        assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("httpserver.SelectorLoop")));
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(e -> e.getEventType().getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No event " + name));
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Бенчмарк настроек сокетов и буфера чтения на loopback.
+ * Для каждой конфигурации запускается отдельный сервер, клиентские потоки
+ * в замкнутом цикле открывают соединение на каждый запрос: маленький GET
+ * и POST с телом, отправленным отдельно от заголовков.
+ * <p>
+ * Запуск: {@code mvn -Pbenchmark test-compile exec:java -Dbenchmark=SocketOptionsBenchmark}
+ * <p>
+ * Аргументы: длительность каждой конфигурации в секундах (5), число клиентских
+ * потоков (4) и размер тела POST в байтах (65536).
+ */
+public class SocketOptionsBenchmark {
+    private static final byte[] GET = "GET /ping HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int bodySize = args.length > 2 ? Integer.parseInt(args[2]) : 65536;
+
+        Map<String, ServerConfig> configs = new LinkedHashMap<>();
+        configs.put("defaults", ServerConfig.builder().build());
+        configs.put("tcpNoDelay=false", ServerConfig.builder().tcpNoDelay(false).build());
+        configs.put("socket buffers 4K", ServerConfig.builder()
+                .receiveBufferSize(4096)
+                .sendBufferSize(4096)
+                .build());
+        configs.put("socket buffers 1M", ServerConfig.builder()
+                .receiveBufferSize(1 << 20)
+                .sendBufferSize(1 << 20)
+                .build());
+        configs.put("adaptiveReadBuffer=false", ServerConfig.builder().adaptiveReadBuffer(false).build());
+
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'a');
+        byte[] post = ("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + bodySize + "\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+
+        // Прогрев JIT отдельным сервером, его результаты не выводятся
+        measure(ServerConfig.builder().build(), seconds, threads, post, body);
+
+        System.out.printf("%-26s %-5s %12s %10s %10s%n", "config", "req", "throughput", "p50", "p99");
+        for (Map.Entry<String, ServerConfig> entry : configs.entrySet()) {
+            long[][] latencies = measure(entry.getValue(), seconds, threads, post, body);
+            print(entry.getKey(), "GET", seconds, latencies[0]);
+            print(entry.getKey(), "POST", seconds, latencies[1]);
+        }
+    }
+
+    // Запускает сервер с настройками и возвращает задержки GET и POST
+    private static long[][] measure(ServerConfig config, int seconds, int threads, byte[] post, byte[] body)
+            throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        HTTPServer server = new HTTPServer("localhost", port, config);
+        server.addListener("/ping", "GET", request -> new Response(204));
+        server.addListener("/echo", "POST", request -> {
+            Response response = new Response(200);
+            response.setBody(request.getBody());
+            return response;
+        });
+        new Thread(server::start).start();
+        Thread.sleep(500);
+
+        try {
+            return new long[][]{
+                    run(port, seconds, threads, GET, null),
+                    run(port, seconds, threads, post, body)
+            };
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void print(String config, String request, int seconds, long[] latencies) {
+        Arrays.sort(latencies);
+        boolean warmedUp = false;
+        System.out.printf("%-26s %-5s %10.1f/s %8.1fus %8.1fus%n", config, request,
+                latencies.length / (double) seconds,
+                percentile(latencies, 0.50) / 1000.0, percentile(latencies, 0.99) / 1000.0);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    // Возвращает задержки всех выполненных запросов в наносекундах
+    private static long[] run(int port, int seconds, int threads, byte[] head, byte[] body)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] results = new long[threads][];
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            int index = i;
+            Thread worker = new Thread(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    try {
+                        request(port, head, body);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                results[index] = Arrays.copyOf(latencies, count);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return Arrays.stream(results).flatMapToLong(Arrays::stream).toArray();
+    }
+
+    // Одно соединение: запрос и ответ до закрытия соединения сервером
+    private static void request(int port, byte[] head, byte[] body) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            out.write(head);
+            if (body != null) {
+                out.write(body);
+            }
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // читаем ответ целиком
+            }
+        }
+    }
+}
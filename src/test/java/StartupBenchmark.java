@@ -0,0 +1,132 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Бенчмарк времени запуска: от старта JVM до первого ответа 200.
+ * Для каждого варианта флагов запускается отдельная JVM с сервером, клиент
+ * опрашивает порт, пока не получит ответ на GET /hello.
+ * <p>
+ * Архив AppCDS создается заранее: {@code mvn -Pappcds package}.
+ * Запуск: {@code mvn -Pbenchmark test-compile exec:java -Dbenchmark=StartupBenchmark}
+ * <p>
+ * Аргументы: число запусков каждого варианта (10).
+ */
+public class StartupBenchmark {
+    private static final byte[] GET = "GET /hello HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final Path ARCHIVE = Path.of("target", "httpserver.jsa");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("child")) {
+            child(Integer.parseInt(args[1]), Boolean.parseBoolean(args[2]));
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Path jar = findJar();
+        if (jar == null) {
+            System.out.println("Server jar not found, run mvn package first");
+            return;
+        }
+        String classpath = jar + File.pathSeparator + Path.of("target", "test-classes");
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("default CDS", List.of());
+        variants.put("-Xshare:off", List.of("-Xshare:off"));
+        variants.put("preTouch", List.of("preTouch"));
+        if (Files.exists(ARCHIVE)) {
+            variants.put("AppCDS", List.of("-XX:SharedArchiveFile=" + ARCHIVE));
+            variants.put("AppCDS + preTouch", List.of("-XX:SharedArchiveFile=" + ARCHIVE, "preTouch"));
+        } else {
+            System.out.println("AppCDS archive not found, run mvn -Pappcds package to create " + ARCHIVE);
+        }
+
+        System.out.printf("%-20s %10s %10s%n", "variant", "median", "min");
+        for (Map.Entry<String, List<String>> entry : variants.entrySet()) {
+            long[] times = new long[runs];
+            for (int i = 0; i < runs; ++i) {
+                times[i] = measure(classpath, entry.getValue());
+            }
+            Arrays.sort(times);
+            System.out.printf("%-20s %8.1fms %8.1fms%n", entry.getKey(),
+                    times[runs / 2] / 1e6, times[0] / 1e6);
+        }
+    }
+
+    private static Path findJar() throws IOException {
+        try (var files = Files.list(Path.of("target"))) {
+            return files.filter(path -> path.getFileName().toString().matches("HTTPServer-.*\\.jar"))
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+
+    // Время в наносекундах от запуска процесса до первого ответа
+    private static long measure(String classpath, List<String> options) throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        boolean preTouch = options.contains("preTouch");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        options.stream().filter(option -> option.startsWith("-")).forEach(command::add);
+        command.addAll(List.of("-cp", classpath, "StartupBenchmark", "child",
+                Integer.toString(port), Boolean.toString(preTouch)));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            while (!request(port)) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Server exited with code " + process.exitValue());
+                }
+                Thread.sleep(1);
+            }
+            return System.nanoTime() - start;
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    // true, если сервер ответил 200
+    private static boolean request(int port) {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(GET);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String response = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+            return response.startsWith("HTTP/1.1 200");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Сервер в дочерней JVM
+    private static void child(int port, boolean preTouch) {
+        HTTPServer server = new HTTPServer("localhost", port, ServerConfig.builder().preTouch(preTouch).build());
+        server.addListener("/hello", "GET", request -> {
+            Response response = new Response(200);
+            response.setBody("Hello world!".getBytes(StandardCharsets.UTF_8));
+            return response;
+        });
+        server.start();
+    }
+}
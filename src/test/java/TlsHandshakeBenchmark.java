@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Бенчмарк рукопожатий TLS: полные рукопожатия против возобновленных сессий.
+ * Сервер и клиенты работают на loopback с самоподписанным сертификатом.
+ * <p>
+ * Запуск: {@code mvn -Pbenchmark test-compile exec:java -Dbenchmark=TlsHandshakeBenchmark}
+ * <p>
+ * Аргументы: длительность каждого режима в секундах (5) и число клиентских потоков (4).
+ */
+public class TlsHandshakeBenchmark {
+    private static final byte[] REQUEST = "GET /ping HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        SelfSignedKeyStore keyStore = SelfSignedKeyStore.generate();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        HTTPServer server = new HTTPServer("localhost", port, keyStore.serverContext());
+        server.addListener("/ping", "GET", request -> new Response(204));
+        new Thread(server::start).start();
+        Thread.sleep(500);
+
+        try {
+            // Прогрев JIT
+            run(keyStore.clientContext(), port, 1, threads, false);
+            System.out.printf("full handshakes:    %10.1f/s%n", run(keyStore.clientContext(), port, seconds, threads, false));
+            System.out.printf("resumed handshakes: %10.1f/s%n", run(keyStore.clientContext(), port, seconds, threads, true));
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Возвращает число рукопожатий в секунду
+    private static double run(SSLContext context, int port, int seconds, int threads, boolean resume)
+            throws InterruptedException {
+        AtomicLong count = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        handshake(context, port, resume);
+                        count.incrementAndGet();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return count.get() / (double) seconds;
+    }
+
+    // Одно соединение: рукопожатие, запрос и ответ
+    private static void handshake(SSLContext context, int port, boolean resume) throws IOException {
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            socket.startHandshake();
+            OutputStream out = socket.getOutputStream();
+            out.write(REQUEST);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            while (in.read() != -1) {
+                // читаем ответ до закрытия соединения сервером
+            }
+            if (!resume) {
+                // Недействительная сессия не будет возобновлена
+                socket.getSession().invalidate();
+            }
+        }
+    }
+}